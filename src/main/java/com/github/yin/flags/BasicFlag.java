@@ -3,136 +3,208 @@ package com.github.yin.flags;
 import javax.annotation.Nonnull;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Handles {@link #get()}, and {@link #validator(Validator)}, leaving {@link #parse(String)}
- * for implementation by clients.
+ * for implementation by clients. Built-in flags extend {@link ConvertibleFlag}, which lets
+ * parsers produce values without injecting them.
  */
 public abstract class BasicFlag<T> implements Flag<T> {
-    public static class StringFlag extends BasicFlag<String> {
-        public StringFlag(@Nonnull String defaultz) {
+    /**
+     * Flag parsing values by {@link #convert(String)}, which converts a value without changing
+     * the flag. Parsers and validation use it to check values before any flag is changed.
+     */
+    public abstract static class ConvertibleFlag<T> extends BasicFlag<T> {
+        protected ConvertibleFlag(T defaultz) {
             super(defaultz);
         }
 
         @Override
         public void parse(@Nonnull String value) {
-            this.value = String.valueOf(value);
-            if (validator != null) {
-                validator.validate(this.value);
-            }
+            set(convert(value));
+        }
+
+        /**
+         * Converts a {@link String} representation into a value without changing the flag.
+         */
+        public abstract T convert(@Nonnull String value);
+    }
+
+    public static class StringFlag extends ConvertibleFlag<String> {
+        public StringFlag(@Nonnull String defaultz) {
+            super(defaultz);
+        }
+
+        @Override
+        public String convert(@Nonnull String value) {
+            return String.valueOf(value);
         }
     }
 
-    public static class BooleanFlag extends BasicFlag<Boolean> {
+    public static class BooleanFlag extends ConvertibleFlag<Boolean> {
         public BooleanFlag(@Nonnull Boolean defaultz) {
             super(defaultz);
         }
 
         @Override
-        public void parse(@Nonnull String value) {
-            this.value = Boolean.valueOf(value);
-            if (validator != null) {
-                validator.validate(this.value);
-            }
+        public Boolean convert(@Nonnull String value) {
+            return Boolean.valueOf(value);
         }
     }
 
-    public static class IntegerFlag extends BasicFlag<Integer> {
+    public static class IntegerFlag extends ConvertibleFlag<Integer> {
         public IntegerFlag(@Nonnull Integer defaultz) {
             super(defaultz);
         }
 
         @Override
-        public void parse(@Nonnull String value) {
-            this.value = Integer.valueOf(value);
-            if (validator != null) {
-                validator.validate(this.value);
-            }
+        public Integer convert(@Nonnull String value) {
+            return Integer.valueOf(value);
         }
     }
 
-    public static class LongFlag extends BasicFlag<Long> {
+    public static class LongFlag extends ConvertibleFlag<Long> {
         public LongFlag(@Nonnull Long defaultz) {
             super(defaultz);
         }
 
         @Override
-        public void parse(@Nonnull String value) {
-            this.value = Long.valueOf(value);
-            if (validator != null) {
-                validator.validate(this.value);
-            }
+        public Long convert(@Nonnull String value) {
+            return Long.valueOf(value);
         }
     }
 
-    public static class FloatFlag extends BasicFlag<Float> {
+    public static class FloatFlag extends ConvertibleFlag<Float> {
         public FloatFlag(@Nonnull Float defaultz) {
             super(defaultz);
         }
 
         @Override
-        public void parse(@Nonnull String value) {
-            this.value = Float.valueOf(value);
-            if (validator != null) {
-                validator.validate(this.value);
-            }
+        public Float convert(@Nonnull String value) {
+            return Float.valueOf(value);
         }
     }
 
-    public static class DoubleFlag extends BasicFlag<Double> {
+    public static class DoubleFlag extends ConvertibleFlag<Double> {
         public DoubleFlag(@Nonnull Double defaultz) {
             super(defaultz);
         }
 
         @Override
-        public void parse(@Nonnull String value) {
-            this.value = Double.valueOf(value);
-            if (validator != null) {
-                validator.validate(this.value);
-            }
+        public Double convert(@Nonnull String value) {
+            return Double.valueOf(value);
         }
     }
 
-    public static class BigIntegerFlag extends BasicFlag<BigInteger> {
+    public static class BigIntegerFlag extends ConvertibleFlag<BigInteger> {
         public BigIntegerFlag(@Nonnull BigInteger defaultz) {
             super(defaultz);
         }
 
         @Override
-        public void parse(@Nonnull String value) {
-            this.value = new BigInteger(value);
-            if (validator != null) {
-                validator.validate(this.value);
-            }
+        public BigInteger convert(@Nonnull String value) {
+            return new BigInteger(value);
         }
     }
 
-    public static class BigDecimalFlag extends BasicFlag<BigDecimal> {
+    public static class BigDecimalFlag extends ConvertibleFlag<BigDecimal> {
         public BigDecimalFlag(@Nonnull BigDecimal defaultz) {
             super(defaultz);
         }
 
         @Override
-        public void parse(@Nonnull String value) {
-            this.value = new BigDecimal(value);
-            if (validator != null) {
-                validator.validate(this.value);
-            }
+        public BigDecimal convert(@Nonnull String value) {
+            return new BigDecimal(value);
         }
     }
 
+    /**
+     * Flag of any type, parsing values with a {@link Converter} resolved when the flag is created.
+     */
+    public static class ConvertingFlag<T> extends ConvertibleFlag<T> {
+        private final Converter<T> converter;
+
+        public ConvertingFlag(@Nonnull T defaultz, @Nonnull Converter<T> converter) {
+            super(defaultz);
+            this.converter = converter;
+        }
+
+        @Override
+        public T convert(@Nonnull String value) {
+            return converter.convert(value);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<BasicFlag, Object> VALUE =
+            AtomicReferenceFieldUpdater.newUpdater(BasicFlag.class, Object.class, "value");
+
     protected Validator<T> validator;
-    protected T value;
+    protected volatile T value;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private volatile FlagID flagID;
 
     public BasicFlag(T defaultz) {
         value = defaultz;
     }
 
+    /**
+     * Returns the value, waiting for a parse running in the background to finish first.
+     */
     @Override
     public T get() {
+        ParseGate.await(this);
         return value;
     }
 
+    /**
+     * Calls the validator function on a value, if there is one attached.
+     */
+    public void validate(T value) {
+        if (validator != null) {
+            validator.validate(value);
+        }
+    }
+
+    /**
+     * Stores a value and calls the validator function afterwards.
+     */
+    protected void set(T value) {
+        inject(value);
+        validate(value);
+    }
+
+    /**
+     * Stores a value which was validated already.
+     */
+    @SuppressWarnings("unchecked")
+    void inject(T value) {
+        T oldValue = (T) VALUE.getAndSet(this, value);
+        FlagHistory.global().record(flagID, oldValue, value);
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Names this flag in {@link FlagHistory}. The first ID the flag was indexed under is kept.
+     */
+    void bind(FlagID flagID) {
+        if (this.flagID == null) {
+            this.flagID = flagID;
+        }
+    }
+
+    /**
+     * Registers a listener called after each change of the value.
+     */
+    void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
     @Override
     public Flag<T> validator(Validator<T> validator) {
         this.validator = validator;
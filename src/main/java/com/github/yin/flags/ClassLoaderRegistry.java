@@ -0,0 +1,128 @@
+package com.github.yin.flags;
+
+import com.github.yin.flags.annotations.ClassScanner;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tracks flags registered per plugin {@link ClassLoader}. Flags enter the global index as
+ * {@link WeakFlag}'s and are removed from it, one by one, once their class loader is unregistered
+ * or garbage collected.
+ *
+ * @author yin
+ */
+class ClassLoaderRegistry {
+    private final ClassScanner classScanner;
+    private final FlagIndex<FlagMetadata> flagIndex;
+    private final ClassMetadataIndex classMetadataIndex;
+    private final ReferenceQueue<ClassLoader> collected = new ReferenceQueue<>();
+    private final List<Registration> registrations = new ArrayList<>();
+
+    /**
+     * Flags and classes registered for a class loader. Holds no strong reference to the loader.
+     */
+    private static final class Registration extends WeakReference<ClassLoader> {
+        final Set<String> packages = new HashSet<>();
+        final List<FlagMetadata> flags = new ArrayList<>();
+        final List<ClassMetadata> classes = new ArrayList<>();
+
+        Registration(ClassLoader loader, ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+        }
+    }
+
+    ClassLoaderRegistry(ClassScanner classScanner, FlagIndex<FlagMetadata> flagIndex,
+                        ClassMetadataIndex classMetadataIndex) {
+        this.classScanner = classScanner;
+        this.flagIndex = flagIndex;
+        this.classMetadataIndex = classMetadataIndex;
+    }
+
+    /**
+     * Scans packages found in resources of a loader, but not of its parent, and adds their flags
+     * to the global index. Packages registered for the loader before are skipped.
+     */
+    synchronized void register(ClassLoader loader, Iterable<String> packages) {
+        expunge();
+        Registration registration = find(loader);
+        if (registration == null) {
+            registration = new Registration(loader, collected);
+            registrations.add(registration);
+        }
+        FlagIndex<FlagMetadata> scanned = new FlagIndex<>();
+        ClassMetadataIndex scannedClasses = new ClassMetadataIndex();
+        for (String pkg : packages) {
+            if (registration.packages.add(pkg)) {
+                classScanner.scanPackage(pkg, loader, scanned, scannedClasses);
+            }
+        }
+        for (ClassMetadata meta : scannedClasses.classes().values()) {
+            registration.classes.add(meta);
+            classMetadataIndex.classes().put(meta.className(), meta);
+        }
+        for (FlagMetadata meta : scanned.byFQN().values()) {
+            // descriptions are copied, reading them lazily would keep the declaring class alive
+            FlagMetadata weak = FlagMetadata.create(meta.flagID().className(), meta.flagID().flagName(),
+                    meta.desc(), new WeakFlag<>(meta.flagID(), meta.flag()));
+            registration.flags.add(weak);
+            flagIndex.add(weak.flagID(), weak);
+        }
+    }
+
+    /**
+     * Removes flags of a loader from the global index.
+     */
+    synchronized void unregister(ClassLoader loader) {
+        expunge();
+        Registration registration = find(loader);
+        if (registration != null) {
+            registration.clear();
+            remove(registration);
+        }
+    }
+
+    /**
+     * Removes flags of class loaders which were garbage collected. Called on each lookup in the
+     * global index, it takes no lock unless a loader was collected.
+     */
+    void expunge() {
+        Reference<? extends ClassLoader> reference = collected.poll();
+        if (reference == null) {
+            return;
+        }
+        synchronized (this) {
+            do {
+                remove((Registration) reference);
+            } while ((reference = collected.poll()) != null);
+        }
+    }
+
+    private Registration find(ClassLoader loader) {
+        for (Registration registration : registrations) {
+            if (registration.get() == loader) {
+                return registration;
+            }
+        }
+        return null;
+    }
+
+    private void remove(Registration registration) {
+        if (!registrations.remove(registration)) {
+            return;
+        }
+        for (FlagMetadata meta : registration.flags) {
+            flagIndex.remove(meta.flagID(), meta);
+        }
+        // another loader may have registered a class of the same name since
+        for (ClassMetadata meta : registration.classes) {
+            classMetadataIndex.classes().computeIfPresent(meta.className(),
+                    (name, current) -> current == meta ? null : current);
+        }
+    }
+}
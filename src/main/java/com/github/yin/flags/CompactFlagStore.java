@@ -0,0 +1,238 @@
+package com.github.yin.flags;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of flags indexed by integer flag ids, for printing and exporting usage.
+ * Flag ids are assigned in order of class name and flag name, so flags of a class have
+ * consecutive ids and comparing two flags is comparing two integers.
+ *
+ * The snapshot shares {@link FlagMetadata} with the {@link FlagIndex} it was built from, it adds
+ * one reference and a few integers per flag. Descriptions are not kept by the store, they are
+ * read from {@link FlagMetadata#desc()} and from the {@link ClassMetadataIndex} when requested. A store built from an index is valid for the
+ * {@link FlagIndex#version()} it reports in {@link #version()}.
+ *
+ * @author yin
+ */
+public final class CompactFlagStore {
+    private static final Comparator<FlagID> ORDER = (a, b) -> {
+        int byClass = a.className().compareTo(b.className());
+        return byClass != 0 ? byClass : a.flagName().compareTo(b.flagName());
+    };
+
+    private final long version;
+    private final FlagMetadata[] flags;
+    private final String[] classNames;
+    private final int[] classStart;
+    private final int[] classOf;
+    private final int[] byName;
+    private final Map<String, ClassMetadata> classes;
+
+    private CompactFlagStore(long version, List<FlagMetadata> entries, Map<String, ClassMetadata> classes) {
+        this.version = version;
+        this.classes = classes;
+        entries.sort((a, b) -> ORDER.compare(a.flagID(), b.flagID()));
+        int size = entries.size();
+        flags = entries.toArray(new FlagMetadata[size]);
+        classOf = new int[size];
+        List<String> names = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        for (int id = 0; id < size; id++) {
+            String className = flags[id].flagID().className();
+            if (names.isEmpty() || !names.get(names.size() - 1).equals(className)) {
+                names.add(className);
+                starts.add(id);
+            }
+            classOf[id] = names.size() - 1;
+        }
+        classNames = names.toArray(new String[names.size()]);
+        classStart = new int[classNames.length + 1];
+        for (int i = 0; i < classNames.length; i++) {
+            classStart[i] = starts.get(i);
+        }
+        classStart[classNames.length] = size;
+
+        Integer[] sorted = new Integer[size];
+        for (int id = 0; id < size; id++) {
+            sorted[id] = id;
+        }
+        Arrays.sort(sorted, (a, b) -> flagName(a).compareTo(flagName(b)));
+        byName = new int[size];
+        for (int i = 0; i < size; i++) {
+            byName[i] = sorted[i];
+        }
+    }
+
+    /**
+     * Builds a store from flags and classes indexed by {@link FlagIndex} and
+     * {@link ClassMetadataIndex}.
+     */
+    public static CompactFlagStore from(@Nonnull FlagIndex<FlagMetadata> flags, @Nonnull ClassMetadataIndex classes) {
+        long version = flags.version();
+        return new CompactFlagStore(version, new ArrayList<>(flags.byFQN().values()), classes.classes());
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Returns version of the {@link FlagIndex} the store was built from, or -1 if built by a {@link Builder} */
+    public long version() {
+        return version;
+    }
+
+    /** Returns number of flags */
+    public int size() {
+        return flags.length;
+    }
+
+    /** Returns number of classes declaring flags */
+    public int classCount() {
+        return classNames.length;
+    }
+
+    public String className(int classIndex) {
+        return classNames[classIndex];
+    }
+
+    /** Returns id of the first flag declared by a class */
+    public int firstFlag(int classIndex) {
+        return classStart[classIndex];
+    }
+
+    /** Returns id following the last flag declared by a class */
+    public int endFlag(int classIndex) {
+        return classStart[classIndex + 1];
+    }
+
+    /** Returns index of the class declaring a flag */
+    public int classOf(int id) {
+        return classOf[id];
+    }
+
+    public String flagName(int id) {
+        return flags[id].flagID().flagName();
+    }
+
+    public String fqn(int id) {
+        return flags[id].flagID().fqn();
+    }
+
+    public Flag<?> flag(int id) {
+        return flags[id].flag();
+    }
+
+    public FlagID flagID(int id) {
+        return flags[id].flagID();
+    }
+
+    /** Compares flags in order of class name and flag name */
+    public int compare(int id, int otherId) {
+        return Integer.compare(id, otherId);
+    }
+
+    /**
+     * Returns index of a class, or a negative number if the class declares no flags.
+     */
+    public int classIndex(@Nonnull String className) {
+        return Arrays.binarySearch(classNames, className);
+    }
+
+    /**
+     * Returns id of a flag, or -1 if there is no such flag.
+     */
+    public int id(@Nonnull String className, @Nonnull String flagName) {
+        int classIndex = classIndex(className);
+        if (classIndex < 0) {
+            return -1;
+        }
+        int low = classStart[classIndex];
+        int high = classStart[classIndex + 1];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = flagName(mid).compareTo(flagName);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns ids of all flags with a given name, in any class.
+     */
+    public int[] ids(@Nonnull String flagName) {
+        int low = 0;
+        int high = byName.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (flagName(byName[mid]).compareTo(flagName) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int end = low;
+        while (end < byName.length && flagName(byName[end]).equals(flagName)) {
+            end++;
+        }
+        return Arrays.copyOfRange(byName, low, end);
+    }
+
+    /**
+     * Returns description of a flag, or an empty string if it has none. Descriptions of scanned
+     * flags are read from their annotations on each call, see {@link FlagMetadata#declared}.
+     */
+    public String description(int id) {
+        return Strings.nullToEmpty(flags[id].desc());
+    }
+
+    /**
+     * Returns description of a class, or an empty string if it has none.
+     */
+    public String classDescription(int classIndex) {
+        ClassMetadata meta = classes.get(classNames[classIndex]);
+        return meta == null ? "" : Strings.nullToEmpty(meta.desc());
+    }
+
+    /**
+     * Collects flags for a {@link CompactFlagStore} which are not kept in a {@link FlagIndex}.
+     */
+    public static final class Builder {
+        private final List<FlagMetadata> entries = new ArrayList<>();
+        private final Map<String, ClassMetadata> classes = Maps.newHashMap();
+
+        private Builder() {
+        }
+
+        public Builder add(@Nonnull String className, @Nonnull String flagName, @Nullable String desc,
+                           @Nonnull Flag<?> flag) {
+            // not bound to the flag, unlike FlagMetadata.create(), the store is not a flag index
+            entries.add(new AutoValue_FlagMetadata(FlagID.create(className, flagName), flag, desc, null));
+            return this;
+        }
+
+        public Builder classDescription(@Nonnull String className, @Nullable String desc) {
+            classes.put(className, ClassMetadata.create(className, desc));
+            return this;
+        }
+
+        public CompactFlagStore build() {
+            return new CompactFlagStore(-1, new ArrayList<>(entries), ImmutableMap.copyOf(classes));
+        }
+    }
+}
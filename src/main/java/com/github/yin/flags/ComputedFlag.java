@@ -0,0 +1,142 @@
+package com.github.yin.flags;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Flag whose value is computed from other flags, e.g. a pool size derived from a thread count.
+ * Created by {@link Flags#computed(Supplier, Flag[])}:
+ * <pre>
+ * static final Flag&lt;Integer&gt; threads = Flags.create(4);
+ * static final Flag&lt;Integer&gt; poolSize = Flags.computed(() -&gt; threads.get() * 4, threads);
+ * </pre>
+ *
+ * The value is computed lazily on {@link #get()} and memoized until one of the declared inputs
+ * changes. Inputs must be {@link BasicFlag}'s or other computed flags, and the function must not
+ * read flags it does not declare, otherwise it would not be recomputed when they change. Declaring
+ * an input which depends on this flag, directly or transitively, is rejected.
+ *
+ * Computed flags cannot be set by parsing, {@link #parse(String)} always fails.
+ *
+ * @author yin
+ */
+public final class ComputedFlag<T> implements Flag<T> {
+    private final Supplier<T> function;
+    private final List<Flag<?>> inputs = new CopyOnWriteArrayList<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong stamp = new AtomicLong();
+    private volatile Memo<T> memo;
+    private volatile Validator<T> validator;
+
+    private static final class Memo<T> {
+        final long stamp;
+        final T value;
+
+        Memo(long stamp, T value) {
+            this.stamp = stamp;
+            this.value = value;
+        }
+    }
+
+    ComputedFlag(@Nonnull Supplier<T> function) {
+        this.function = function;
+    }
+
+    /**
+     * Declares more flags the value is computed from.
+     * @throws IllegalArgumentException if an input is not observable or depends on this flag
+     */
+    public synchronized ComputedFlag<T> dependsOn(@Nonnull Flag<?>... flags) {
+        for (Flag<?> input : flags) {
+            if (dependsOn(input, this)) {
+                throw new IllegalArgumentException("Computed flag would depend on itself through " + input);
+            }
+            if (input instanceof BasicFlag) {
+                ((BasicFlag<?>) input).addListener(this::invalidate);
+            } else if (input instanceof ComputedFlag) {
+                ((ComputedFlag<?>) input).listeners.add(this::invalidate);
+            } else {
+                throw new IllegalArgumentException("Changes of " + input + " cannot be observed");
+            }
+            inputs.add(input);
+        }
+        invalidate();
+        return this;
+    }
+
+    @Override
+    public T get() {
+        awaitInputs();
+        long current = stamp.get();
+        Memo<T> memo = this.memo;
+        if (memo != null && memo.stamp == current) {
+            return memo.value;
+        }
+        T value = function.get();
+        Validator<T> validator = this.validator;
+        if (validator != null) {
+            validator.validate(value);
+        }
+        this.memo = new Memo<>(current, value);
+        return value;
+    }
+
+    /**
+     * Attaches a validator run on each computed value.
+     */
+    @Override
+    public Flag<T> validator(Validator<T> validator) {
+        this.validator = validator;
+        invalidate();
+        return this;
+    }
+
+    @Override
+    public void parse(String value) {
+        throw new Flags.ParseException("Flag is computed from other flags and cannot be set");
+    }
+
+    /**
+     * Waits for inputs being applied in the background, the memoized value may be stale until
+     * they are.
+     */
+    private void awaitInputs() {
+        for (Flag<?> input : inputs) {
+            if (input instanceof ComputedFlag) {
+                ((ComputedFlag<?>) input).awaitInputs();
+            } else {
+                ParseGate.await(input);
+            }
+        }
+    }
+
+    private void invalidate() {
+        stamp.incrementAndGet();
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Tells whether {@code flag} is {@code target}, or is computed from it transitively.
+     */
+    private static boolean dependsOn(Flag<?> flag, ComputedFlag<?> target) {
+        Deque<Flag<?>> pending = new ArrayDeque<>();
+        pending.push(flag);
+        while (!pending.isEmpty()) {
+            Flag<?> next = pending.pop();
+            if (next == target) {
+                return true;
+            }
+            if (next instanceof ComputedFlag) {
+                pending.addAll(((ComputedFlag<?>) next).inputs);
+            }
+        }
+        return false;
+    }
+}
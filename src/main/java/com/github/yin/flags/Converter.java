@@ -0,0 +1,10 @@
+package com.github.yin.flags;
+
+/**
+ * Converts {@link String} representation of a flag value into the flag type.
+ * Implementations should be stateless and throw {@link Flags.ParseException} on invalid input.
+ */
+@FunctionalInterface
+public interface Converter<T> {
+    T convert(String value);
+}
@@ -0,0 +1,358 @@
+package com.github.yin.flags;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nonnull;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of {@link Converter}'s keyed by target type. Converters are looked up once, when a
+ * flag is created by {@link Flags#create(Class, Object)}, not on each parse.
+ *
+ * Besides the built-in flag types, the registry knows {@link Duration}, {@link Path},
+ * {@link InetSocketAddress} and any {@code enum}. Byte sizes are parsed by {@link #BYTE_SIZE}.
+ * Client applications may {@link #register(Class, Converter)} converters for their own types.
+ *
+ * @author yin
+ */
+public final class Converters {
+    public static final Converter<String> STRING = String::valueOf;
+    public static final Converter<Boolean> BOOLEAN = Boolean::valueOf;
+    public static final Converter<Integer> INTEGER = Integer::valueOf;
+    public static final Converter<Long> LONG = Long::valueOf;
+    public static final Converter<Float> FLOAT = Float::valueOf;
+    public static final Converter<Double> DOUBLE = Double::valueOf;
+    public static final Converter<BigInteger> BIG_INTEGER = BigInteger::new;
+    public static final Converter<BigDecimal> BIG_DECIMAL = BigDecimal::new;
+    public static final Converter<Duration> DURATION = Converters::parseDuration;
+    public static final Converter<Long> BYTE_SIZE = Converters::parseByteSize;
+    public static final Converter<Path> PATH = Paths::get;
+    public static final Converter<InetSocketAddress> SOCKET_ADDRESS = Converters::parseSocketAddress;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final ConcurrentMap<Class<?>, Converter<?>> registry = new ConcurrentHashMap<>();
+
+    static {
+        registry.put(String.class, STRING);
+        registry.put(Boolean.class, BOOLEAN);
+        registry.put(Integer.class, INTEGER);
+        registry.put(Long.class, LONG);
+        registry.put(Float.class, FLOAT);
+        registry.put(Double.class, DOUBLE);
+        registry.put(BigInteger.class, BIG_INTEGER);
+        registry.put(BigDecimal.class, BIG_DECIMAL);
+        registry.put(Duration.class, DURATION);
+        registry.put(Path.class, PATH);
+        registry.put(InetSocketAddress.class, SOCKET_ADDRESS);
+    }
+
+    private Converters() {
+    }
+
+    /**
+     * Registers a converter for a type, replacing any previous one.
+     */
+    public static <T> void register(@Nonnull Class<T> type, @Nonnull Converter<T> converter) {
+        registry.put(type, converter);
+    }
+
+    /**
+     * Returns converter for a type. Converters for {@code enum}'s are created on each lookup and
+     * not cached, so the registry never keeps classes of a plugin class loader reachable.
+     * @throws IllegalArgumentException if there is no converter for the type
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Converter<T> lookup(@Nonnull Class<T> type) {
+        Converter<?> converter = registry.get(type);
+        if (converter == null && type.isEnum()) {
+            converter = forEnum((Class) type);
+        } else if (converter == null && Path.class.isAssignableFrom(type)) {
+            converter = PATH;
+        }
+        if (converter == null) {
+            throw new IllegalArgumentException("No converter registered for " + type.getName());
+        }
+        return (Converter<T>) converter;
+    }
+
+    /**
+     * Creates converter looking up enum constants by name in a precomputed table. Names match
+     * exactly, or ignoring case.
+     */
+    public static <E extends Enum<E>> Converter<E> forEnum(@Nonnull Class<E> type) {
+        ImmutableMap.Builder<String, E> builder = ImmutableMap.builder();
+        Map<String, E> lowerCase = new HashMap<>();
+        for (E constant : type.getEnumConstants()) {
+            builder.put(constant.name(), constant);
+            lowerCase.put(constant.name().toLowerCase(Locale.ROOT), constant);
+        }
+        final ImmutableMap<String, E> constants = builder.build();
+        final ImmutableMap<String, E> byLowerCase = ImmutableMap.copyOf(lowerCase);
+        final String typeName = type.getSimpleName();
+        return value -> {
+            E constant = constants.get(value);
+            if (constant == null) {
+                constant = byLowerCase.get(value.toLowerCase(Locale.ROOT));
+            }
+            if (constant == null) {
+                throw new Flags.ParseException("Invalid " + typeName + " value: " + value
+                        + ", expected one of " + constants.keySet());
+            }
+            return constant;
+        };
+    }
+
+    /**
+     * Parses durations like {@code 250ms}, {@code 5m} or {@code 1h30m}. Supported units are
+     * {@code ns, us, ms, s, m, h} and {@code d}, numbers may have a decimal fraction. ISO-8601
+     * durations, e.g. {@code PT5M}, are accepted too.
+     * @throws Flags.ParseException if the value is not a duration or does not fit in a {@link Duration}
+     */
+    public static Duration parseDuration(@Nonnull CharSequence value) {
+        try {
+            return duration(value);
+        } catch (ArithmeticException | DateTimeParseException e) {
+            throw new Flags.ParseException("Invalid duration: " + value, e);
+        }
+    }
+
+    private static Duration duration(CharSequence value) {
+        int length = value.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+            negative = value.charAt(0) == '-';
+            i++;
+        }
+        if (i < length && (value.charAt(i) == 'P' || value.charAt(i) == 'p')) {
+            return Duration.parse(value);
+        }
+        if (i == length) {
+            throw invalid("duration", value);
+        }
+        long seconds = 0;
+        long nanos = 0;
+        while (i < length) {
+            long whole = 0;
+            long fraction = 0;
+            long fractionScale = 1;
+            int start = i;
+            while (i < length && isDigit(value.charAt(i))) {
+                whole = Math.addExact(Math.multiplyExact(whole, 10), value.charAt(i++) - '0');
+            }
+            if (i < length && value.charAt(i) == '.') {
+                i++;
+                while (i < length && isDigit(value.charAt(i))) {
+                    if (fractionScale < NANOS_PER_SECOND) {
+                        fraction = fraction * 10 + (value.charAt(i) - '0');
+                        fractionScale *= 10;
+                    }
+                    i++;
+                }
+            }
+            int unitStart = i;
+            while (i < length && !isDigit(value.charAt(i)) && value.charAt(i) != '.') {
+                i++;
+            }
+            if (unitStart == start || !isDigit(value.charAt(unitStart - 1))) {
+                throw invalid("duration", value);
+            } else if (unitStart == i) {
+                // only zero may omit the unit
+                if (whole == 0 && fraction == 0 && start == (negative ? 1 : 0)) {
+                    return Duration.ZERO;
+                }
+                throw invalid("duration", value);
+            }
+            long unitNanos = durationUnit(value, unitStart, i);
+            if (unitNanos < 0) {
+                throw invalid("duration", value);
+            }
+            // whole part may exceed nanosecond precision, keep seconds and nanos apart
+            seconds = Math.addExact(seconds, Math.multiplyExact(whole, unitNanos / NANOS_PER_SECOND));
+            nanos = Math.addExact(nanos, Math.multiplyExact(whole, unitNanos % NANOS_PER_SECOND));
+            nanos = Math.addExact(nanos, (long) ((double) fraction / fractionScale * unitNanos));
+        }
+        Duration duration = Duration.ofSeconds(seconds, nanos);
+        return negative ? duration.negated() : duration;
+    }
+
+    /**
+     * Parses byte sizes like {@code 512MiB}, {@code 1.5GB} or {@code 64k}. Binary units
+     * {@code KiB, MiB, GiB, TiB, PiB} and single letters {@code k, m, g, t, p} are powers of 1024,
+     * decimal units {@code kB, MB, GB, TB, PB} are powers of 1000. A number without unit or with
+     * {@code B} is a count of bytes.
+     * @throws Flags.ParseException if the value is not a byte size or does not fit in a {@code long}
+     */
+    public static long parseByteSize(@Nonnull CharSequence value) {
+        try {
+            return byteSize(value);
+        } catch (ArithmeticException e) {
+            throw new Flags.ParseException("Invalid byte size: " + value, e);
+        }
+    }
+
+    private static long byteSize(CharSequence value) {
+        int length = value.length();
+        int i = 0;
+        long whole = 0;
+        long fraction = 0;
+        long fractionScale = 1;
+        while (i < length && isDigit(value.charAt(i))) {
+            whole = Math.addExact(Math.multiplyExact(whole, 10), value.charAt(i++) - '0');
+        }
+        if (i < length && value.charAt(i) == '.') {
+            i++;
+            while (i < length && isDigit(value.charAt(i))) {
+                if (fractionScale < 1000000000000000L) {
+                    fraction = fraction * 10 + (value.charAt(i) - '0');
+                    fractionScale *= 10;
+                }
+                i++;
+            }
+        }
+        if (i == 0 || (i == 1 && value.charAt(0) == '.')) {
+            throw invalid("byte size", value);
+        }
+        int unitStart = i;
+        while (i < length && value.charAt(i) == ' ') {
+            unitStart = ++i;
+        }
+        long multiplier = byteUnit(value, unitStart, length);
+        if (multiplier < 0) {
+            throw invalid("byte size", value);
+        }
+        return Math.addExact(Math.multiplyExact(whole, multiplier),
+                (long) ((double) fraction / fractionScale * multiplier));
+    }
+
+    /**
+     * Parses socket addresses like {@code host:port}, {@code 10.0.0.1:80} or {@code [::1]:8080}.
+     * Host names are resolved, if resolution fails the address is unresolved.
+     */
+    public static InetSocketAddress parseSocketAddress(@Nonnull String value) {
+        int colon = value.lastIndexOf(':');
+        if (colon < 0 || colon == value.length() - 1) {
+            throw invalid("socket address", value);
+        }
+        String host = value.substring(0, colon);
+        // InetSocketAddress.toString() gives "hostname/address:port", IPv6 addresses are in
+        // brackets only since JDK 14
+        int slash = host.indexOf('/');
+        if (slash > 0) {
+            host = host.substring(0, slash);
+        } else if (slash == 0) {
+            host = host.substring(1);
+        }
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        } else if (host.indexOf(':') >= 0 && slash != 0) {
+            throw invalid("socket address", value);
+        }
+        int port = 0;
+        for (int i = colon + 1; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!isDigit(c) || (port = port * 10 + c - '0') > 0xffff) {
+                throw invalid("socket address", value);
+            }
+        }
+        return host.isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(host, port);
+    }
+
+    /**
+     * Formats a value so that its converter parses it back. Socket addresses are formatted as
+     * {@code host:port}, or {@code [address]:port} for IPv6, other values by {@link String#valueOf}.
+     */
+    public static String format(Object value) {
+        if (value instanceof InetSocketAddress) {
+            InetSocketAddress address = (InetSocketAddress) value;
+            String host = address.getHostString();
+            return (host.indexOf(':') >= 0 ? "[" + host + "]" : host) + ":" + address.getPort();
+        }
+        return String.valueOf(value);
+    }
+
+    private static long durationUnit(CharSequence value, int start, int end) {
+        switch (end - start) {
+            case 1:
+                switch (value.charAt(start)) {
+                    case 's': return NANOS_PER_SECOND;
+                    case 'm': return 60 * NANOS_PER_SECOND;
+                    case 'h': return 3600 * NANOS_PER_SECOND;
+                    case 'd': return 86400 * NANOS_PER_SECOND;
+                    default: return -1;
+                }
+            case 2:
+                if (value.charAt(start + 1) != 's') {
+                    return -1;
+                }
+                switch (value.charAt(start)) {
+                    case 'n': return 1;
+                    case 'u': case 'µ': return 1000;
+                    case 'm': return 1000000;
+                    default: return -1;
+                }
+            default:
+                return -1;
+        }
+    }
+
+    private static long byteUnit(CharSequence value, int start, int end) {
+        if (start == end) {
+            return 1;
+        }
+        int power;
+        switch (Character.toLowerCase(value.charAt(start))) {
+            case 'b': return end - start == 1 ? 1 : -1;
+            case 'k': power = 1; break;
+            case 'm': power = 2; break;
+            case 'g': power = 3; break;
+            case 't': power = 4; break;
+            case 'p': power = 5; break;
+            default: return -1;
+        }
+        long base;
+        switch (end - start) {
+            case 1:
+                base = 1024;
+                break;
+            case 2:
+                if (value.charAt(start + 1) != 'B') {
+                    return -1;
+                }
+                base = 1000;
+                break;
+            case 3:
+                if (value.charAt(start + 1) != 'i' || value.charAt(start + 2) != 'B') {
+                    return -1;
+                }
+                base = 1024;
+                break;
+            default:
+                return -1;
+        }
+        long multiplier = 1;
+        for (int i = 0; i < power; i++) {
+            multiplier *= base;
+        }
+        return multiplier;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static Flags.ParseException invalid(String type, CharSequence value) {
+        return new Flags.ParseException("Invalid " + type + ": " + value);
+    }
+}
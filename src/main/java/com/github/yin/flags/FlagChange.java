@@ -0,0 +1,54 @@
+package com.github.yin.flags;
+
+import com.google.auto.value.AutoValue;
+
+import javax.annotation.Nullable;
+
+/**
+ * Records a change of a flag value in {@link FlagHistory}.
+ * @author yin
+ */
+@AutoValue
+public abstract class FlagChange {
+    /**
+     * Tells where a flag value came from.
+     */
+    public enum Source {
+        /** Command-line arguments */
+        ARGV,
+        /** Map of flag names and values, e.g. in tests */
+        MAP,
+        /** File, e.g. a cache of values received from a config service */
+        FILE,
+        /** Binary {@link FlagSnapshot} */
+        SNAPSHOT,
+        /** Config service */
+        CONFIG_SERVICE,
+        /** Administrative endpoint */
+        ADMIN,
+        /** Direct call to the API, e.g. {@link Flag#parse(String)} */
+        API
+    }
+
+    static FlagChange create(long sequence, long timestamp, @Nullable FlagID flagID, @Nullable Object oldValue,
+                             @Nullable Object newValue, Source source) {
+        return new AutoValue_FlagChange(sequence, timestamp, flagID, oldValue, newValue, source);
+    }
+
+    /** Position of the change in the history, starting at 0 */
+    public abstract long sequence();
+
+    /** Time of the change, in milliseconds since the epoch */
+    public abstract long timestamp();
+
+    /** Flag which changed, or {@code null} for flags never indexed */
+    @Nullable public abstract FlagID flagID();
+
+    /** Value before the change, a string for values of classes loaded by plugin class loaders */
+    @Nullable public abstract Object oldValue();
+
+    /** Value after the change, a string for values of classes loaded by plugin class loaders */
+    @Nullable public abstract Object newValue();
+
+    public abstract Source source();
+}
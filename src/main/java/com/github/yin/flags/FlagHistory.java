@@ -0,0 +1,170 @@
+package com.github.yin.flags;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps a fixed number of recent flag value changes, for finding out when a bad value arrived,
+ * what it replaced and where it came from. Every value stored by a {@link BasicFlag} is recorded
+ * in {@link #global()}.
+ *
+ * The history is a ring buffer. Writers claim a sequence number with a single atomic increment
+ * and publish the record into its slot, overwriting the oldest one; neither writers nor readers
+ * ever lock. Readers skip slots which were overwritten or not yet published while reading.
+ *
+ * Values of classes loaded by plugin class loaders, e.g. enums declared by a plugin, are recorded
+ * as strings, so the history does not keep an unloaded plugin reachable.
+ *
+ * The source of a change is taken from the current thread, parsers set it with
+ * {@link #source(FlagChange.Source)}:
+ * <pre>
+ * FlagChange.Source previous = FlagHistory.source(FlagChange.Source.ADMIN);
+ * try {
+ *     flag.parse(value);
+ * } finally {
+ *     FlagHistory.source(previous);
+ * }
+ * </pre>
+ *
+ * @author yin
+ */
+public final class FlagHistory {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final FlagHistory GLOBAL = new FlagHistory(DEFAULT_CAPACITY);
+    private static final ThreadLocal<FlagChange.Source> SOURCE = new ThreadLocal<>();
+    private static final ClassLoader LOADER = FlagHistory.class.getClassLoader();
+
+    private final AtomicReferenceArray<FlagChange> ring;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * Creates a history keeping at least {@code capacity} changes, rounded up to a power of two.
+     */
+    public FlagHistory(int capacity) {
+        Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 30, "Invalid capacity: %s", capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns history of all changes to {@link BasicFlag} values in this JVM.
+     */
+    public static FlagHistory global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Sets source of changes made by the current thread.
+     * @return previous source, to be restored afterwards
+     */
+    @Nullable
+    public static FlagChange.Source source(@Nullable FlagChange.Source source) {
+        FlagChange.Source previous = SOURCE.get();
+        if (source == null) {
+            SOURCE.remove();
+        } else {
+            SOURCE.set(source);
+        }
+        return previous;
+    }
+
+    /**
+     * Records a change made by the current thread.
+     */
+    public void record(@Nullable FlagID flagID, @Nullable Object oldValue, @Nullable Object newValue) {
+        FlagChange.Source source = SOURCE.get();
+        record(flagID, oldValue, newValue, source != null ? source : FlagChange.Source.API);
+    }
+
+    public void record(@Nullable FlagID flagID, @Nullable Object oldValue, @Nullable Object newValue,
+                       @Nonnull FlagChange.Source source) {
+        long sequence = next.getAndIncrement();
+        ring.set((int) (sequence & mask), FlagChange.create(sequence, System.currentTimeMillis(), flagID,
+                retained(oldValue), retained(newValue), source));
+    }
+
+    /**
+     * Returns a value to keep in the history, formatted as a string if its class was loaded
+     * neither by the loader of this library nor by any of its parents.
+     */
+    private static Object retained(@Nullable Object value) {
+        if (value == null) {
+            return null;
+        }
+        ClassLoader loader = value.getClass().getClassLoader();
+        if (loader == null) {
+            return value;
+        }
+        for (ClassLoader shared = LOADER; shared != null; shared = shared.getParent()) {
+            if (shared == loader) {
+                return value;
+            }
+        }
+        return Converters.format(value);
+    }
+
+    /** Returns number of changes recorded so far, including ones no longer kept */
+    public long count() {
+        return next.get();
+    }
+
+    public int capacity() {
+        return ring.length();
+    }
+
+    /**
+     * Returns up to {@code limit} most recent changes, newest first.
+     */
+    public List<FlagChange> recent(int limit) {
+        return recent(limit, null);
+    }
+
+    /**
+     * Returns up to {@code limit} most recent changes of a flag, newest first.
+     */
+    public List<FlagChange> recent(int limit, @Nullable FlagID flagID) {
+        long end = next.get();
+        long start = Math.max(0, end - ring.length());
+        List<FlagChange> changes = new ArrayList<>();
+        for (long sequence = end - 1; sequence >= start && changes.size() < limit; sequence--) {
+            FlagChange change = ring.get((int) (sequence & mask));
+            if (change == null || change.sequence() != sequence) {
+                // Not yet published, or already overwritten by a newer change
+                continue;
+            }
+            if (flagID == null || flagID.equals(change.flagID())) {
+                changes.add(change);
+            }
+        }
+        return Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * Writes recent changes as lines of text, newest first.
+     */
+    public void dump(@Nonnull Appendable out, int limit) throws IOException {
+        for (FlagChange change : recent(limit)) {
+            out.append(Instant.ofEpochMilli(change.timestamp()).toString())
+                    .append(' ').append(change.source().name())
+                    .append(' ').append(change.flagID() != null ? change.flagID().fqn() : "<unknown>")
+                    .append(": ").append(String.valueOf(change.oldValue()))
+                    .append(" -> ").append(String.valueOf(change.newValue()))
+                    .append('\n');
+        }
+    }
+}
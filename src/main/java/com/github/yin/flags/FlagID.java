@@ -10,16 +10,15 @@ import javax.annotation.Nonnull;
 @AutoValue
 public abstract class FlagID implements Comparable<FlagID> {
     public static FlagID create(String className, String flagName) {
-        return new AutoValue_FlagID(className, flagName);
+        return new AutoValue_FlagID(className, flagName, className + '.' + flagName);
     }
 
     public abstract String className();
 
     public abstract String flagName();
 
-    public final String fqn() {
-        return className() + '.' + flagName();
-    }
+    /** Fully qualified name, computed once on creation */
+    public abstract String fqn();
 
     public int compareTo(@Nonnull FlagID that) {
         return fqn().compareTo(that.fqn());
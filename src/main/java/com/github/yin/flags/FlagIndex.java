@@ -3,41 +3,116 @@ package com.github.yin.flags;
 import com.google.common.collect.*;
 
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Stores value objects indexed by <code>FlagID</code> in a <code>Multimap</code> fashion
  * and allows for easy access by any FlagID attribute.
+ *
+ * Flags may be added and looked up from any number of threads without locking. Views returned
+ * by the accessors are immutable snapshots, which are cached until the next {@link #add} or {@link #remove}.
  * @author yin
  */
 public class FlagIndex<T> {
-    private final Multimap<String, T> byName = HashMultimap.create();
-    private final Multimap<String, T> byClass = HashMultimap.create();
-    private final Map<String, T> byFQN = Maps.newTreeMap();
-    private ImmutableMultimap<String, T> _byName;
-    private ImmutableMultimap<String, T> _byClass;
-    private ImmutableMap<String, T> _byFQN;
+    private final ConcurrentMap<String, Set<T>> byName = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<T>> byClass = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, T> byFQN = new ConcurrentSkipListMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private volatile View<ImmutableMultimap<String, T>> _byName;
+    private volatile View<ImmutableMultimap<String, T>> _byClass;
+    private volatile View<ImmutableMap<String, T>> _byFQN;
+
+    /**
+     * Immutable view of an index, valid for the version of the index it was copied from.
+     */
+    private static final class View<V> {
+        final long version;
+        final V value;
+
+        View(long version, V value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
 
     public void add(FlagID flagID, T flag) {
         String clazz = flagID.className();
         String name = flagID.flagName();
         String fqn = flagID.fqn();
-        byName.put(name, flag);
-        byClass.put(clazz, flag);
+        put(byName, name, flag);
+        put(byClass, clazz, flag);
         byFQN.put(fqn, flag);
-        _byName = null;
-        _byClass = null;
-        _byFQN = null;
+        version.incrementAndGet();
+    }
+
+    /**
+     * Removes a flag from the index, leaving other flags in place.
+     */
+    public void remove(FlagID flagID, T flag) {
+        delete(byName, flagID.flagName(), flag);
+        delete(byClass, flagID.className(), flag);
+        byFQN.remove(flagID.fqn(), flag);
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns a number which changes whenever flags are added or removed.
+     */
+    public long version() {
+        return version.get();
     }
 
     public Multimap<String, T> byName() {
-        return _byName != null ? _byName : (_byName = ImmutableMultimap.copyOf(byName));
+        long current = version.get();
+        View<ImmutableMultimap<String, T>> view = _byName;
+        if (view == null || view.version != current) {
+            _byName = view = new View<>(current, copyOf(byName));
+        }
+        return view.value;
     }
 
     public ImmutableMultimap<String, T> byClass() {
-        return _byClass != null ? _byClass : (_byClass = ImmutableMultimap.copyOf(byClass));
+        long current = version.get();
+        View<ImmutableMultimap<String, T>> view = _byClass;
+        if (view == null || view.version != current) {
+            _byClass = view = new View<>(current, copyOf(byClass));
+        }
+        return view.value;
     }
 
     public Map<String, T> byFQN() {
-        return _byFQN != null ? _byFQN : (_byFQN = ImmutableMap.copyOf(byFQN));
+        long current = version.get();
+        View<ImmutableMap<String, T>> view = _byFQN;
+        if (view == null || view.version != current) {
+            _byFQN = view = new View<>(current, ImmutableMap.copyOf(byFQN));
+        }
+        return view.value;
+    }
+
+    private static <T> void put(ConcurrentMap<String, Set<T>> index, String key, T value) {
+        index.compute(key, (k, values) -> {
+            Set<T> set = values != null ? values : ConcurrentHashMap.newKeySet();
+            set.add(value);
+            return set;
+        });
+    }
+
+    private static <T> void delete(ConcurrentMap<String, Set<T>> index, String key, T value) {
+        index.computeIfPresent(key, (k, values) -> {
+            values.remove(value);
+            return values.isEmpty() ? null : values;
+        });
+    }
+
+    private static <T> ImmutableMultimap<String, T> copyOf(Map<String, Set<T>> index) {
+        ImmutableSetMultimap.Builder<String, T> builder = ImmutableSetMultimap.builder();
+        for (Map.Entry<String, Set<T>> entry : index.entrySet()) {
+            builder.putAll(entry.getKey(), entry.getValue());
+        }
+        return builder.build();
     }
 }
@@ -1,5 +1,6 @@
 package com.github.yin.flags;
 
+import com.github.yin.flags.annotations.FlagDesc;
 import com.google.auto.value.AutoValue;
 
 import javax.annotation.Nonnull;
@@ -12,11 +13,47 @@ import javax.annotation.Nullable;
 @AutoValue
 public abstract class FlagMetadata implements Comparable<FlagMetadata> {
     public static <T> FlagMetadata create(String className, String flagName, String desc, Flag<?> flag) {
-        return new AutoValue_FlagMetadata(FlagID.create(className, flagName), desc, flag);
+        return bind(new AutoValue_FlagMetadata(FlagID.create(className, flagName), flag, desc, null));
     }
+
+    /**
+     * Creates metadata of a flag declared by a field of the same name. The description stays in
+     * the {@link FlagDesc} annotation of the field and is read only when {@link #desc()} is called,
+     * e.g. when usage is printed.
+     */
+    public static FlagMetadata declared(Class<?> declaringClass, String fieldName, Flag<?> flag) {
+        return bind(new AutoValue_FlagMetadata(FlagID.create(declaringClass.getCanonicalName(), fieldName), flag,
+                null, declaringClass));
+    }
+
+    private static FlagMetadata bind(FlagMetadata meta) {
+        Flag<?> target = WeakFlag.unwrap(meta.flag());
+        if (target instanceof BasicFlag) {
+            ((BasicFlag<?>) target).bind(meta.flagID());
+        }
+        return meta;
+    }
+
     public abstract FlagID flagID();
-    @Nullable public abstract String desc();
     public abstract Flag<?> flag();
+    @Nullable abstract String storedDesc();
+
+    /** Returns the class declaring the flag field if the description is read from it lazily */
+    @Nullable public abstract Class<?> declaringClass();
+
+    @Nullable
+    public String desc() {
+        Class<?> declaringClass = declaringClass();
+        if (declaringClass == null) {
+            return storedDesc();
+        }
+        try {
+            FlagDesc desc = declaringClass.getDeclaredField(flagID().flagName()).getAnnotation(FlagDesc.class);
+            return desc != null ? desc.value() : "";
+        } catch (NoSuchFieldException e) {
+            return "";
+        }
+    }
 
     public final int compareTo(@Nonnull FlagMetadata that) {
         return this.flagID().compareTo(that.flagID());
@@ -0,0 +1,20 @@
+package com.github.yin.flags;
+
+/**
+ * Indexes flags on demand, while a parser looks them up. Lets parsers start with an empty or
+ * partial {@link FlagIndex}.
+ *
+ * @author yin
+ */
+public interface FlagResolver {
+    /**
+     * Indexes classes declaring a flag name, unless they were indexed already.
+     */
+    void resolve(String flagName);
+
+    /**
+     * Indexes all flags, before a parser reports a flag as unknown.
+     * @return {@code false} if all flags were indexed already, so the flag is really unknown
+     */
+    boolean resolveAll();
+}
@@ -0,0 +1,436 @@
+package com.github.yin.flags;
+
+import com.github.yin.flags.annotations.ClassScanner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Captures flag values and metadata in a compact, versioned binary format, so a forked worker or
+ * a restarted job can restore flag state without scanning packages and parsing arguments again.
+ *
+ * Names and descriptions are stored once in a string table, integers are encoded as zig-zag
+ * varints and the whole snapshot is protected by a CRC32 checksum:
+ * <pre>
+ * snapshot := magic:int32 version:varint strings classes flags crc32:int32
+ * strings  := count:varint (length:varint utf8:byte[length])*
+ * classes  := count:varint (className:ref desc:ref)*
+ * flags    := count:varint (className:ref flagName:ref desc:ref type:byte value)*
+ * </pre>
+ * where {@code ref} is a varint index into the string table, or 0 for {@code null}.
+ *
+ * On {@link #restore(FlagIndex, ClassMetadataIndex, ClassLoader)}, only classes named in the
+ * snapshot are scanned, which does not involve walking the classpath.
+ *
+ * @author yin
+ */
+public final class FlagSnapshot {
+    static final int MAGIC = 0x4a46534e;
+    static final int VERSION = 1;
+
+    static final byte TYPE_RAW = 0;
+    static final byte TYPE_BOOLEAN = 1;
+    static final byte TYPE_INTEGER = 2;
+    static final byte TYPE_LONG = 3;
+    static final byte TYPE_FLOAT = 4;
+    static final byte TYPE_DOUBLE = 5;
+    static final byte TYPE_STRING = 6;
+
+    private final ImmutableList<ClassMetadata> classes;
+    private final ImmutableList<Entry> entries;
+
+    private static final class Entry {
+        final FlagID flagID;
+        final String desc;
+        final byte type;
+        final Object value;
+
+        Entry(FlagID flagID, String desc, byte type, Object value) {
+            this.flagID = flagID;
+            this.desc = desc;
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    private FlagSnapshot(List<ClassMetadata> classes, List<Entry> entries) {
+        this.classes = ImmutableList.copyOf(classes);
+        this.entries = ImmutableList.copyOf(entries);
+    }
+
+    /**
+     * Captures current values of all flags in the index, except {@link ComputedFlag}'s and flags
+     * of unloaded plugins.
+     */
+    public static FlagSnapshot capture(@Nonnull FlagIndex<FlagMetadata> flags, @Nonnull ClassMetadataIndex classes) {
+        ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+        for (FlagMetadata meta : flags.byFQN().values()) {
+            Flag<?> flag = WeakFlag.unwrap(meta.flag());
+            if (flag instanceof ComputedFlag || WeakFlag.isCleared(flag)) {
+                // cannot be set, its value follows from other flags, or was unloaded
+                continue;
+            }
+            Object value = flag.get();
+            byte type = type(flag);
+            if (type == TYPE_RAW || type == TYPE_STRING) {
+                value = value != null ? Converters.format(value) : null;
+            }
+            entries.add(new Entry(meta.flagID(), meta.desc(), type, value));
+        }
+        return new FlagSnapshot(ImmutableList.copyOf(classes.classes().values()), entries.build());
+    }
+
+    /**
+     * Returns captured flag values. Values of flags other than built-in primitive types are kept
+     * in their {@link String} representation.
+     */
+    public Map<FlagID, Object> values() {
+        Map<FlagID, Object> values = Maps.newLinkedHashMap();
+        for (Entry entry : entries) {
+            values.put(entry.flagID, entry.value);
+        }
+        return values;
+    }
+
+    /**
+     * Writes the snapshot into a channel.
+     */
+    public void write(@Nonnull WritableByteChannel channel) throws IOException {
+        Map<String, Integer> strings = Maps.newLinkedHashMap();
+        for (ClassMetadata meta : classes) {
+            intern(strings, meta.className());
+            intern(strings, meta.desc());
+        }
+        for (Entry entry : entries) {
+            intern(strings, entry.flagID.className());
+            intern(strings, entry.flagID.flagName());
+            intern(strings, entry.desc);
+            if (entry.type == TYPE_RAW || entry.type == TYPE_STRING) {
+                intern(strings, (String) entry.value);
+            }
+        }
+
+        Encoder out = new Encoder();
+        out.int32(MAGIC);
+        out.varint(VERSION);
+        out.varint(strings.size());
+        for (String string : strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.varint(bytes.length);
+            out.bytes(bytes);
+        }
+        out.varint(classes.size());
+        for (ClassMetadata meta : classes) {
+            out.varint(ref(strings, meta.className()));
+            out.varint(ref(strings, meta.desc()));
+        }
+        out.varint(entries.size());
+        for (Entry entry : entries) {
+            out.varint(ref(strings, entry.flagID.className()));
+            out.varint(ref(strings, entry.flagID.flagName()));
+            out.varint(ref(strings, entry.desc));
+            out.int8(entry.value != null ? entry.type : TYPE_RAW);
+            writeValue(out, strings, entry);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.buffer, 0, out.size);
+        out.int32((int) crc.getValue());
+
+        ByteBuffer buffer = ByteBuffer.wrap(out.buffer, 0, out.size);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads a snapshot from a channel, until its end.
+     * @throws IOException if the snapshot is corrupted or has an unsupported version
+     */
+    public static FlagSnapshot read(@Nonnull ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = readFully(channel);
+        if (buffer.remaining() < 8) {
+            throw new IOException("Snapshot is truncated");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.limit() - 4);
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+            throw new IOException("Snapshot checksum does not match");
+        }
+        buffer.limit(buffer.limit() - 4);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a flag snapshot");
+        }
+        int version = varint(buffer);
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        String[] strings = new String[varint(buffer) + 1];
+        for (int i = 1; i < strings.length; i++) {
+            int length = varint(buffer);
+            strings[i] = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        }
+        ImmutableList.Builder<ClassMetadata> classes = ImmutableList.builder();
+        for (int i = varint(buffer); i > 0; i--) {
+            classes.add(ClassMetadata.create(strings[varint(buffer)], strings[varint(buffer)]));
+        }
+        ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+        for (int i = varint(buffer); i > 0; i--) {
+            FlagID flagID = FlagID.create(strings[varint(buffer)], strings[varint(buffer)]);
+            String desc = strings[varint(buffer)];
+            byte type = buffer.get();
+            entries.add(new Entry(flagID, desc, type, readValue(buffer, strings, type)));
+        }
+        return new FlagSnapshot(classes.build(), entries.build());
+    }
+
+    /**
+     * Restores flag values, indexing classes named in the snapshot if they are not indexed yet.
+     * Values are injected without running validators, they were valid when captured.
+     * {@link ComputedFlag}'s are left alone.
+     * @throws Flags.ParseException if a class or flag from the snapshot cannot be found
+     */
+    @SuppressWarnings("unchecked")
+    public void restore(@Nonnull FlagIndex<FlagMetadata> flags, @Nonnull ClassMetadataIndex classMetadata,
+                        @Nonnull ClassLoader loader) {
+        ClassScanner scanner = new ClassScanner();
+        for (Entry entry : entries) {
+            String className = entry.flagID.className();
+            if (!flags.byClass().containsKey(className)) {
+                scanner.scanClass(loadClass(className, loader), flags, classMetadata);
+            }
+        }
+        for (ClassMetadata meta : classes) {
+            if (!classMetadata.classes().containsKey(meta.className())) {
+                classMetadata.classes().put(meta.className(), meta);
+            }
+        }
+        ImmutableMap<String, FlagMetadata> byFQN = ImmutableMap.copyOf(flags.byFQN());
+        FlagChange.Source previous = FlagHistory.source(FlagChange.Source.SNAPSHOT);
+        try {
+            inject(byFQN);
+        } finally {
+            FlagHistory.source(previous);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void inject(ImmutableMap<String, FlagMetadata> byFQN) {
+        for (Entry entry : entries) {
+            FlagMetadata meta = byFQN.get(entry.flagID.fqn());
+            if (meta == null) {
+                throw new Flags.ParseException("Flag " + entry.flagID.fqn() + " from snapshot was not found");
+            }
+            if (entry.value == null) {
+                continue;
+            }
+            Flag<?> flag = WeakFlag.unwrap(meta.flag());
+            if (flag instanceof ComputedFlag || WeakFlag.isCleared(flag)) {
+                continue;
+            }
+            if (entry.type == TYPE_RAW) {
+                flag.parse((String) entry.value);
+            } else if (entry.type == TYPE_STRING) {
+                BasicFlag.ConvertibleFlag<Object> convertible = (BasicFlag.ConvertibleFlag<Object>) flag;
+                convertible.inject(convertible.convert((String) entry.value));
+            } else {
+                ((BasicFlag<Object>) flag).inject(entry.value);
+            }
+        }
+    }
+
+    private static byte type(Flag<?> flag) {
+        if (flag instanceof BasicFlag.BooleanFlag) {
+            return TYPE_BOOLEAN;
+        } else if (flag instanceof BasicFlag.IntegerFlag) {
+            return TYPE_INTEGER;
+        } else if (flag instanceof BasicFlag.LongFlag) {
+            return TYPE_LONG;
+        } else if (flag instanceof BasicFlag.FloatFlag) {
+            return TYPE_FLOAT;
+        } else if (flag instanceof BasicFlag.DoubleFlag) {
+            return TYPE_DOUBLE;
+        } else if (flag instanceof BasicFlag.ConvertibleFlag) {
+            return TYPE_STRING;
+        }
+        return TYPE_RAW;
+    }
+
+    private static void writeValue(Encoder out, Map<String, Integer> strings, Entry entry) {
+        if (entry.value == null) {
+            out.varint(0);
+            return;
+        }
+        switch (entry.type) {
+            case TYPE_BOOLEAN:
+                out.int8((byte) ((Boolean) entry.value ? 1 : 0));
+                break;
+            case TYPE_INTEGER:
+                out.varlong(zigzag((Integer) entry.value));
+                break;
+            case TYPE_LONG:
+                out.varlong(zigzag((Long) entry.value));
+                break;
+            case TYPE_FLOAT:
+                out.int32(Float.floatToRawIntBits((Float) entry.value));
+                break;
+            case TYPE_DOUBLE:
+                out.int64(Double.doubleToRawLongBits((Double) entry.value));
+                break;
+            default:
+                out.varint(ref(strings, (String) entry.value));
+        }
+    }
+
+    private static Object readValue(ByteBuffer in, String[] strings, byte type) throws IOException {
+        switch (type) {
+            case TYPE_BOOLEAN:
+                return in.get() != 0;
+            case TYPE_INTEGER:
+                return (int) unzigzag(varlong(in));
+            case TYPE_LONG:
+                return unzigzag(varlong(in));
+            case TYPE_FLOAT:
+                return Float.intBitsToFloat(in.getInt());
+            case TYPE_DOUBLE:
+                return Double.longBitsToDouble(in.getLong());
+            case TYPE_RAW:
+            case TYPE_STRING:
+                return strings[varint(in)];
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static Class<?> loadClass(String canonicalName, ClassLoader loader) {
+        String name = canonicalName;
+        while (true) {
+            try {
+                return Class.forName(name, true, loader);
+            } catch (ClassNotFoundException e) {
+                // canonical names of nested classes use '.' instead of '$'
+                int dot = name.lastIndexOf('.');
+                if (dot < 0) {
+                    throw new Flags.ParseException("Class " + canonicalName + " from snapshot was not found", e);
+                }
+                name = name.substring(0, dot) + '$' + name.substring(dot + 1);
+            }
+        }
+    }
+
+    private static ByteBuffer readFully(ReadableByteChannel channel) throws IOException {
+        int capacity = channel instanceof FileChannel
+                ? (int) (((FileChannel) channel).size() - ((FileChannel) channel).position()) + 1 : 4096;
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(capacity, 16));
+        while (channel.read(buffer) >= 0) {
+            if (!buffer.hasRemaining()) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put((ByteBuffer) buffer.flip());
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void intern(Map<String, Integer> strings, @Nullable String string) {
+        if (string != null && !strings.containsKey(string)) {
+            strings.put(string, strings.size() + 1);
+        }
+    }
+
+    private static int ref(Map<String, Integer> strings, @Nullable String string) {
+        return string != null ? strings.get(string) : 0;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int varint(ByteBuffer in) throws IOException {
+        long value = varlong(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot is corrupted");
+        }
+        return (int) value;
+    }
+
+    private static long varlong(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Snapshot is corrupted");
+    }
+
+    /**
+     * Growable byte array with big-endian and varint encoders.
+     */
+    private static final class Encoder {
+        byte[] buffer = new byte[4096];
+        int size;
+
+        void int8(byte value) {
+            ensure(1);
+            buffer[size++] = value;
+        }
+
+        void int32(int value) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void int64(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void varint(int value) {
+            varlong(value & 0xffffffffL);
+        }
+
+        void varlong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void bytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void ensure(int length) {
+            if (size + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+            }
+        }
+    }
+}
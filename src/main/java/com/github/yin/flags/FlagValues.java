@@ -0,0 +1,13 @@
+package com.github.yin.flags;
+
+/**
+ * Provides a consistent view of flag values, which does not change while it is being read.
+ *
+ * @author yin
+ */
+public interface FlagValues {
+    /**
+     * Returns value of a flag as seen by this view.
+     */
+    <T> T get(Flag<T> flag);
+}
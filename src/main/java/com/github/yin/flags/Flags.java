@@ -1,13 +1,39 @@
 package com.github.yin.flags;
 
+import com.github.yin.flags.analysis.UsageExporter;
 import com.github.yin.flags.analysis.UsagePrinter;
 import com.github.yin.flags.annotations.ClassScanner;
+import com.github.yin.flags.annotations.FlagDeclarationIndex;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Provides static API for creating built-in flags, parsing arguments and
@@ -44,10 +70,14 @@ import java.util.Map;
  * </pre>
  */
 public class Flags {
-    private static Flags instance;
     private final ClassScanner classScanner;
     private final ClassMetadataIndex classMetadataIndex;
     private final FlagIndex<FlagMetadata> flagIndex;
+    private final ClassLoaderRegistry classLoaders;
+    private final Set<String> lazilyScannedClasses = ConcurrentHashMap.newKeySet();
+    private volatile FlagDeclarationIndex declarations;
+    private final ConcurrentMap<String, FutureTask<Void>> scannedPackages = new ConcurrentHashMap<>();
+    private volatile CompactFlagStore usage;
 
     /**
      * Initializes flag values from command-line style arguments.
@@ -55,8 +85,194 @@ public class Flags {
      * @param packages list of package roots to scan flags
      */
     public static List<String> parse(String[] args, Iterable<String> packages) {
-        instance().scan(packages);
-        return instance._parse(args);
+        Flags flags = instance();
+        flags._scan(packages);
+        return flags._parse(args);
+    }
+
+    /**
+     * Initializes flag values from command-line style arguments, running validators after all
+     * arguments are parsed. No flag value changes unless all values are valid. Only flags
+     * extending {@link BasicFlag.ConvertibleFlag} may be given, other flags could only be
+     * validated by changing them and are reported as invalid.
+     * @param args command-line arguments to parse values from
+     * @param packages list of package roots to scan flags
+     * @param validation engine running the validators
+     * @throws ParseException describing all problems found in the arguments
+     */
+    public static List<String> parse(String[] args, Iterable<String> packages, ValidationEngine validation) {
+        ParseResult result = compile(packages).parse(args);
+        if (result.hasErrors()) {
+            throw new ParseException("Invalid arguments: " + result.errors());
+        }
+        validation.validate(result).throwIfInvalid();
+        FlagChange.Source previous = FlagHistory.source(FlagChange.Source.ARGV);
+        try {
+            result.apply(true);
+        } finally {
+            FlagHistory.source(previous);
+        }
+        return result.arguments();
+    }
+
+    /**
+     * Initializes flag values from command-line style arguments, without scanning packages up
+     * front. Only classes declaring the flags given in arguments are scanned, as recorded at
+     * compile time in {@value FlagDeclarationIndex#RESOURCE}. Packages are scanned as a whole
+     * only if a flag is not found in the index.
+     * @param args command-line arguments to parse values from
+     * @param packages list of package roots to look for flags in
+     */
+    public static List<String> parseLazily(String[] args, Iterable<String> packages) {
+        Flags flags = instance();
+        flags.classLoaders.expunge();
+        GflagsParser parser = new GflagsParser(flags.flagIndex, flags.lazyScanner(packages));
+        FlagChange.Source previous = FlagHistory.source(FlagChange.Source.ARGV);
+        try {
+            return parser.parse(args);
+        } finally {
+            FlagHistory.source(previous);
+        }
+    }
+
+    /**
+     * Indexes flag values from a <code>Map</code> like {@link #parse(Map, Iterable)}, without
+     * scanning packages up front. Only classes declaring the given flags are scanned, as recorded
+     * at compile time in {@value FlagDeclarationIndex#RESOURCE}.
+     * @param options Map of flags and their intended values
+     * @param packages list of package roots to look for flags in
+     */
+    public static void parseLazily(Map<String, String> options, Iterable<String> packages) {
+        Flags flags = instance();
+        flags.classLoaders.expunge();
+        MapParser parser = new MapParser(flags.flagIndex, flags.lazyScanner(packages));
+        FlagChange.Source previous = FlagHistory.source(FlagChange.Source.MAP);
+        try {
+            parser.parse(options);
+        } finally {
+            FlagHistory.source(previous);
+        }
+    }
+
+    /**
+     * Initializes flag values from command-line style arguments on a background thread, so the
+     * application can initialize in the meantime. Until the arguments are parsed, {@link
+     * Flag#get()} of any flag waits, afterwards only flags given in the arguments wait for their
+     * values. Values are validated before any is applied, like with
+     * {@link #parse(String[], Iterable, ValidationEngine)}, so a failed parse changes no flag.
+     *
+     * Static initializers of classes in the scanned packages must not read flags, because they
+     * may run while the background thread waits to scan the class. Such readers fail with an
+     * {@link IllegalStateException} after a timeout, set by system property
+     * {@value ParseGate#TIMEOUT_PROPERTY}.
+     * @param args command-line arguments to parse values from
+     * @param packages list of package roots to scan flags
+     * @return future completed with the non-flag arguments, or failed with {@link ParseException}.
+     *         Cancelling it succeeds only before values start being applied, and then no flag
+     *         changes.
+     */
+    public static CompletableFuture<List<String>> parseAsync(String[] args, Iterable<String> packages) {
+        Flags flags = instance();
+        return ParseGate.submit(Background.EXECUTOR, gate -> {
+            if (gate.cancelled()) {
+                return null;
+            }
+            flags._scan(packages);
+            if (gate.cancelled()) {
+                return null;
+            }
+            ParseResult result = ParsePlan.compile(flags.flagIndex).parse(args);
+            if (result.hasErrors()) {
+                throw new ParseException("Invalid arguments: " + result.errors());
+            }
+            gate.narrow(result);
+            Background.VALIDATION.validate(result).throwIfInvalid();
+            if (gate.commit()) {
+                FlagChange.Source previous = FlagHistory.source(FlagChange.Source.ARGV);
+                try {
+                    result.apply(true);
+                } finally {
+                    FlagHistory.source(previous);
+                }
+            }
+            return result.arguments();
+        });
+    }
+
+    /**
+     * Scans package roots for flags on a background thread. Flags keep their values, so readers
+     * do not wait for the scan.
+     * @param packages list of package roots to scan flags
+     */
+    public static CompletableFuture<Void> scanAsync(Iterable<String> packages) {
+        Flags flags = instance();
+        return CompletableFuture.runAsync(ParseGate.exempt(() -> flags._scan(packages)), Background.EXECUTOR);
+    }
+
+    /**
+     * Scans package roots for flags without parsing any values. Packages which were scanned
+     * before are skipped, so flags indexed ahead of time, e.g. while building a native image,
+     * are not scanned for again in {@link #parse(String[], Iterable)}.
+     * @param packages list of package roots to scan flags
+     */
+    public static void scan(Iterable<String> packages) {
+        instance()._scan(packages);
+    }
+
+    /**
+     * Registers flags declared by classes of a plugin class loader. Only resources of the loader
+     * itself are scanned, not these of its parent, and calling this again adds flags from new
+     * packages only. The flags are held weakly and removed from the index once the class loader
+     * is garbage collected or {@link #unregister(ClassLoader) unregistered}.
+     * @param loader plugin class loader
+     * @param packages list of package roots to scan flags
+     */
+    public static void register(ClassLoader loader, Iterable<String> packages) {
+        instance().classLoaders.register(loader, packages);
+    }
+
+    /**
+     * Removes flags registered for a class loader, e.g. when unloading a plugin.
+     */
+    public static void unregister(ClassLoader loader) {
+        instance().classLoaders.unregister(loader);
+    }
+
+    /**
+     * Compiles a reusable {@link ParsePlan} for flags found in the package roots. The plan parses
+     * arguments into separate {@link ParseResult}'s and can be shared among threads.
+     * @param packages list of package roots to scan flags
+     */
+    public static ParsePlan compile(Iterable<String> packages) {
+        Flags flags = instance();
+        flags._scan(packages);
+        return ParsePlan.compile(flags.flagIndex);
+    }
+
+    /**
+     * Compiles {@link KeyBindings} for applying many maps of flag values with the same keys,
+     * scanning packages and resolving flag names only once.
+     * @param keys flag names, as accepted by {@link #parse(Map, Iterable)}
+     * @param packages list of package roots to scan flags
+     */
+    public static KeyBindings bind(Iterable<String> keys, Iterable<String> packages) {
+        Flags flags = instance();
+        flags._scan(packages);
+        return new MapParser(flags.flagIndex).compile(keys);
+    }
+
+    /**
+     * Writes usage of flags scanned so far, limited to a package prefix. Unlike
+     * {@link #printUsage(String)}, no packages are scanned.
+     * @param out output, buffered by this method
+     * @param format output format
+     * @param packagePrefix package or class name, empty for all flags
+     */
+    public static void exportUsage(Writer out, UsageExporter.Format format, String packagePrefix) throws IOException {
+        Flags flags = instance();
+        BufferedWriter writer = new BufferedWriter(out);
+        new UsageExporter(format).export(flags.usage(), packagePrefix, writer);
+        writer.flush();
     }
 
     /**
@@ -115,6 +331,86 @@ public class Flags {
         return new BasicFlag.StringFlag(defaultz);
     }
 
+    /**
+     * Writes values and metadata of all scanned flags as a binary {@link FlagSnapshot}.
+     */
+    public static void exportSnapshot(WritableByteChannel channel) throws IOException {
+        Flags flags = instance();
+        flags.classLoaders.expunge();
+        FlagSnapshot.capture(flags.flagIndex, flags.classMetadataIndex).write(channel);
+    }
+
+    /**
+     * Restores flag values from a binary {@link FlagSnapshot}, instead of scanning packages and
+     * parsing arguments again.
+     */
+    public static void importSnapshot(ReadableByteChannel channel) throws IOException {
+        FlagSnapshot snapshot = FlagSnapshot.read(channel);
+        Flags flags = instance();
+        snapshot.restore(flags.flagIndex, flags.classMetadataIndex, Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * Creates {@link Flag} accessor for {@link Duration} type, e.g. {@code 250ms} or {@code 5m}.
+     */
+    public static Flag<Duration> create(Duration defaultz) {
+        return new BasicFlag.ConvertingFlag<>(defaultz, Converters.DURATION);
+    }
+
+    /**
+     * Creates {@link Flag} accessor for {@link Path} type.
+     */
+    public static Flag<Path> create(Path defaultz) {
+        return new BasicFlag.ConvertingFlag<>(defaultz, Converters.PATH);
+    }
+
+    /**
+     * Creates {@link Flag} accessor for {@link InetSocketAddress} type, e.g. {@code host:port}.
+     */
+    public static Flag<InetSocketAddress> create(InetSocketAddress defaultz) {
+        return new BasicFlag.ConvertingFlag<>(defaultz, Converters.SOCKET_ADDRESS);
+    }
+
+    /**
+     * Creates {@link Flag} accessor for an {@code enum} type, accepting constant names.
+     */
+    public static <E extends Enum<E>> Flag<E> create(E defaultz) {
+        return new BasicFlag.ConvertingFlag<>(defaultz, Converters.lookup(defaultz.getDeclaringClass()));
+    }
+
+    /**
+     * Creates a feature toggle rolled out by {@link Rollout} rules, e.g. {@code 10%} or
+     * {@code allow=17,42}.
+     */
+    public static RolloutFlag createRollout(String defaultz) {
+        return new RolloutFlag(Rollout.parse(defaultz));
+    }
+
+    /**
+     * Creates {@link Flag} accessor for a byte size in bytes, e.g. {@code 512MiB} or {@code 1GB}.
+     */
+    public static Flag<Long> createByteSize(long defaultz) {
+        return new BasicFlag.ConvertingFlag<>(defaultz, Converters.BYTE_SIZE);
+    }
+
+    /**
+     * Creates {@link Flag} accessor for any type known to {@link Converters}.
+     * @throws IllegalArgumentException if no converter is registered for the type
+     */
+    public static <T> Flag<T> create(Class<T> type, T defaultz) {
+        return new BasicFlag.ConvertingFlag<>(defaultz, Converters.lookup(type));
+    }
+
+    /**
+     * Creates {@link Flag} accessor computed from other flags. The value is memoized until one
+     * of the inputs changes.
+     * @param function computes the value, reading only the declared inputs
+     * @param inputs flags the value is computed from
+     */
+    public static <T> ComputedFlag<T> computed(Supplier<T> function, Flag<?>... inputs) {
+        return new ComputedFlag<>(function).dependsOn(inputs);
+    }
+
     /** Prints user-readable usage help for all flags in a given package */
     public static void printUsage(String packagePrefix) {
         instance().printUsageForPackage(packagePrefix);
@@ -128,7 +424,7 @@ public class Flags {
      */
     @VisibleForTesting
     public static void parse(Map<String, String> options, Iterable<String> packages) {
-        instance().scan(packages);
+        instance()._scan(packages);
         instance()._parse(options);
     }
 
@@ -142,43 +438,117 @@ public class Flags {
         return instance().flagIndex;
     }
 
-    private void scan(Iterable<String> packages) {
+    /**
+     * Scans each package once. Threads asking for a package which is being scanned by another
+     * thread wait for that scan to finish, scans of different packages run concurrently.
+     */
+    private void _scan(Iterable<String> packages) {
+        classLoaders.expunge();
         for (String pkg : packages) {
-            classScanner.scanPackage(pkg, flagIndex, classMetadataIndex);
+            FutureTask<Void> scan = new FutureTask<>(() -> classScanner.scanPackage(pkg, flagIndex, classMetadataIndex), null);
+            FutureTask<Void> existing = scannedPackages.putIfAbsent(pkg, scan);
+            if (existing == null) {
+                scan.run();
+            } else {
+                scan = existing;
+            }
+            try {
+                Uninterruptibles.getUninterruptibly(scan);
+            } catch (ExecutionException e) {
+                scannedPackages.remove(pkg, scan);
+                Throwables.propagateIfPossible(e.getCause());
+                throw new ParseException("Cannot scan package " + pkg, e.getCause());
+            }
         }
     }
 
-    private void printUsageForPackage(String packagePrefix) {
-        synchronized (this) {
-            classScanner.scanPackage(packagePrefix, flagIndex, classMetadataIndex);
+    private LazyScanner lazyScanner(Iterable<String> packages) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = Flags.class.getClassLoader();
         }
-        new UsagePrinter().printUsage(flagIndex, classMetadataIndex, System.out);
+        FlagDeclarationIndex index = declarations;
+        if (index == null) {
+            declarations = index = FlagDeclarationIndex.load(loader);
+        }
+        return new LazyScanner(index, packages, loader, classScanner, flagIndex, classMetadataIndex,
+                lazilyScannedClasses, () -> _scan(packages));
+    }
+
+    private void printUsageForPackage(String packagePrefix) {
+        _scan(Collections.singleton(packagePrefix));
+        new UsagePrinter().printUsage(usage(), System.out);
     }
 
+    /**
+     * Returns flags sorted for usage output, sorting them again only after flags were added or removed.
+     */
+    private CompactFlagStore usage() {
+        classLoaders.expunge();
+        CompactFlagStore store = usage;
+        if (store == null || store.version() != flagIndex.version()) {
+            usage = store = CompactFlagStore.from(flagIndex, classMetadataIndex);
+        }
+        return store;
+    }
 
     private static Flags instance() {
-        synchronized (Flags.class) {
-            if (instance == null) {
-                instance = new Flags(new ClassScanner(), new ClassMetadataIndex(), new FlagIndex<>());
-            }
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Creates the registry on first use, without locking on later calls.
+     */
+    private static final class Holder {
+        static final Flags INSTANCE = new Flags(new ClassScanner(), new ClassMetadataIndex(), new FlagIndex<>());
+    }
+
+    /**
+     * Runs background scans and parses one at a time, on a thread which exits when idle.
+     * Validators of background parses run on that thread too.
+     */
+    private static final class Background {
+        static final ExecutorService EXECUTOR;
+        static final ValidationEngine VALIDATION = new ValidationEngine(MoreExecutors.sameThreadExecutor());
+
+        static {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), new ThreadFactoryBuilder()
+                    .setNameFormat("flags-background-%d")
+                    .setDaemon(true)
+                    .build());
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
         }
-        return instance;
     }
 
     private Flags(ClassScanner classScanner, ClassMetadataIndex classMetadataIndex, FlagIndex<FlagMetadata> flagIndex) {
         this.classScanner = classScanner;
         this.classMetadataIndex = classMetadataIndex;
         this.flagIndex = flagIndex;
+        this.classLoaders = new ClassLoaderRegistry(classScanner, flagIndex, classMetadataIndex);
     }
 
     private List<String> _parse(String[] args) {
+        classLoaders.expunge();
         GflagsParser parser = new GflagsParser(flagIndex);
-        return parser.parse(args);
+        FlagChange.Source previous = FlagHistory.source(FlagChange.Source.ARGV);
+        try {
+            return parser.parse(args);
+        } finally {
+            FlagHistory.source(previous);
+        }
     }
 
     private void _parse(Map<String, String> options) {
+        classLoaders.expunge();
         MapParser parser = new MapParser(flagIndex);
-        parser.parse(options);
+        FlagChange.Source previous = FlagHistory.source(FlagChange.Source.MAP);
+        try {
+            parser.parse(options);
+        } finally {
+            FlagHistory.source(previous);
+        }
     }
 
     /**
@@ -6,6 +6,7 @@ import org.slf4j.LoggerFactory;
 import com.google.common.annotations.VisibleForTesting;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -19,13 +20,22 @@ class GflagsParser implements Parser<String[]> {
     private static final Logger log = LoggerFactory.getLogger(GflagsParser.class);
     private final List<String> arguments = new ArrayList<String>();
     private final FlagIndex<FlagMetadata> flags;
+    private final FlagResolver resolver;
     private AcceptorState state;
     private FlagMetadata lastMeta;
 
     enum AcceptorState {KEY_EXPECTED, VALUE_EXPECTED}
 
     public GflagsParser(@Nonnull FlagIndex<FlagMetadata> flags) {
+        this(flags, null);
+    }
+
+    /**
+     * Creates a parser indexing flags on demand through a {@link FlagResolver}.
+     */
+    public GflagsParser(@Nonnull FlagIndex<FlagMetadata> flags, @Nullable FlagResolver resolver) {
         this.flags = flags;
+        this.resolver = resolver;
     }
 
     @Override
@@ -66,19 +76,24 @@ class GflagsParser implements Parser<String[]> {
         if (state != AcceptorState.KEY_EXPECTED) {
             errorFlagHasNoValue();
         }
-        Collection<FlagMetadata> flagsByName = flags.byName().get(key);
+        Collection<FlagMetadata> flagsByName = lookup(key);
         if (flagsByName.isEmpty() && key.startsWith("no")) {
-            flagsByName = flags.byName().get(key.substring(2));
-            if (flagsByName.size() == 1) {
+            flagsByName = lookup(key.substring(2));
+            if (flagsByName.isEmpty() && resolveAll()) {
+                key(key, original);
+            } else if (flagsByName.size() == 1) {
                 handleFalseFlag(flagsByName.iterator().next(), original);
             } else if (flagsByName.isEmpty()) {
                 errorUnknownFlag(original);
             } else {
                 errorAmbigousFlag(original, flagsByName);
             }
+            return;
         }
         if (flagsByName.size() == 1) {
             handleFlag(flagsByName.iterator().next());
+        } else if (flagsByName.isEmpty() && resolveAll()) {
+            key(key, original);
         } else if (flagsByName.isEmpty()) {
             errorUnknownFlag(original);
         } else {
@@ -90,10 +105,11 @@ class GflagsParser implements Parser<String[]> {
         if (state != AcceptorState.KEY_EXPECTED) {
             errorFlagHasNoValue();
         }
-        Collection<FlagMetadata> flagsByName = flags.byName().get(key);
+        Collection<FlagMetadata> flagsByName = lookup(key);
         if (flagsByName.size() == 1) {
-            handleFlag(flagsByName.iterator().next());
-            handleValue(value);
+            flagsByName.iterator().next().flag().parse(value);
+        } else if (flagsByName.isEmpty() && resolveAll()) {
+            keyAndValue(key, value, original);
         } else if (flagsByName.isEmpty()) {
             errorUnknownFlag(original);
         } else {
@@ -101,8 +117,19 @@ class GflagsParser implements Parser<String[]> {
         }
     }
 
+    private Collection<FlagMetadata> lookup(String key) {
+        if (resolver != null) {
+            resolver.resolve(key);
+        }
+        return WeakFlag.live(flags.byName().get(key));
+    }
+
+    private boolean resolveAll() {
+        return resolver != null && resolver.resolveAll();
+    }
+
     protected void handleFlag(FlagMetadata meta) {
-        Class<?> flagtype = meta.getClass();
+        Class<?> flagtype = WeakFlag.unwrap(meta.flag()).getClass();
         if (BasicFlag.BooleanFlag.class.isAssignableFrom(flagtype)) {
             meta.flag().parse("true");
         } else {
@@ -112,7 +139,7 @@ class GflagsParser implements Parser<String[]> {
     }
 
     protected void handleFalseFlag(FlagMetadata meta, String orig) {
-        Class<?> flagtype = meta.getClass();
+        Class<?> flagtype = WeakFlag.unwrap(meta.flag()).getClass();
         if (BasicFlag.BooleanFlag.class.isAssignableFrom(flagtype)) {
             meta.flag().parse("false");
         } else {
@@ -0,0 +1,111 @@
+package com.github.yin.flags;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+
+/**
+ * Flags bound to a set of keys by {@link MapParser#compile(Iterable)}. Applying values through
+ * bindings parses them straight into the flags, without looking up names in the
+ * {@link FlagIndex}, e.g. on each config reload. Converting values and recording their history
+ * take most of the time either way. Of the rest, {@link #apply(String[])} and maps iterating keys
+ * in the order of {@link #keys()} skip the lookups, see MapParserBenchmark in the test sources.
+ *
+ * Bindings are immutable and may be applied by any number of threads. Keys which were unknown or
+ * ambiguous when compiled are bound to no flag, and their values are ignored.
+ *
+ * @author yin
+ */
+public final class KeyBindings {
+    private static final Logger log = LoggerFactory.getLogger(KeyBindings.class);
+    private final ImmutableList<String> keys;
+    private final Flag<?>[] flags;
+    private final ImmutableMap<String, Integer> slots;
+
+    KeyBindings(ImmutableList<String> keys, Flag<?>[] flags) {
+        this.keys = keys;
+        this.flags = flags;
+        ImmutableMap.Builder<String, Integer> slots = ImmutableMap.builder();
+        for (int i = 0; i < keys.size(); i++) {
+            slots.put(keys.get(i), i);
+        }
+        this.slots = slots.build();
+    }
+
+    /**
+     * Returns bound keys, in the order of values accepted by {@link #apply(String[])}.
+     */
+    public ImmutableList<String> keys() {
+        return keys;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * Tells whether a key is bound to a flag.
+     */
+    public boolean isBound(String key) {
+        Integer slot = slots.get(key);
+        return slot != null && flags[slot] != null;
+    }
+
+    /**
+     * Parses values of bound keys into their flags, in the order of the map. The cost depends on
+     * the size of the map, not the number of bindings. Keys which were not compiled into these
+     * bindings are reported as unknown flags.
+     *
+     * Keys are bound by position while the map iterates them in the order of {@link #keys()},
+     * e.g. a {@link java.util.LinkedHashMap} filled from {@link #keys()} on each reload, and looked
+     * up by name from the first key out of order.
+     */
+    public void apply(@Nonnull Map<String, String> values) {
+        int position = 0;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String key = entry.getKey();
+            int slot;
+            if (position >= 0 && position < flags.length && keys.get(position).equals(key)) {
+                slot = position++;
+            } else {
+                position = -1;
+                Integer found = slots.get(key);
+                if (found == null) {
+                    log.error("Unknown flag: {}", key);
+                    continue;
+                }
+                slot = found;
+            }
+            if (entry.getValue() != null) {
+                parse(slot, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Parses values into flags by position, following the order of {@link #keys()}. Keys with a
+     * {@code null} value are skipped.
+     * @throws IllegalArgumentException if the number of values differs from the number of keys
+     */
+    public void apply(@Nonnull String[] values) {
+        if (values.length != flags.length) {
+            throw new IllegalArgumentException("Expected " + flags.length + " values, got " + values.length);
+        }
+        for (int i = 0; i < flags.length; i++) {
+            if (values[i] != null) {
+                parse(i, values[i]);
+            }
+        }
+    }
+
+    private void parse(int slot, String value) {
+        Flag<?> flag = flags[slot];
+        if (flag != null) {
+            flag.parse(value);
+        }
+    }
+}
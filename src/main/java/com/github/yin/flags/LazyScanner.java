@@ -0,0 +1,81 @@
+package com.github.yin.flags;
+
+import com.github.yin.flags.annotations.ClassScanner;
+import com.github.yin.flags.annotations.FlagDeclarationIndex;
+
+import java.util.Set;
+
+/**
+ * Scans classes declaring a flag name when a parser looks the name up, as recorded in a
+ * {@link FlagDeclarationIndex}. Packages are scanned as a whole only before a flag is reported
+ * as unknown, e.g. when it is declared in a jar compiled without the index.
+ *
+ * Flags of the same name declared in a class missing from the index are not seen, until a full
+ * scan, so ambiguous names may go unnoticed.
+ *
+ * @author yin
+ */
+class LazyScanner implements FlagResolver {
+    private final FlagDeclarationIndex declarations;
+    private final Iterable<String> packages;
+    private final ClassLoader loader;
+    private final ClassScanner classScanner;
+    private final FlagIndex<FlagMetadata> flags;
+    private final ClassMetadataIndex classMetadata;
+    private final Set<String> scannedClasses;
+    private final Runnable scanAll;
+    private boolean scannedAll;
+
+    /**
+     * @param scannedClasses binary names of classes scanned so far, shared among scanners
+     * @param scanAll scans all packages
+     */
+    LazyScanner(FlagDeclarationIndex declarations, Iterable<String> packages, ClassLoader loader,
+                ClassScanner classScanner, FlagIndex<FlagMetadata> flags, ClassMetadataIndex classMetadata,
+                Set<String> scannedClasses, Runnable scanAll) {
+        this.declarations = declarations;
+        this.packages = packages;
+        this.loader = loader;
+        this.classScanner = classScanner;
+        this.flags = flags;
+        this.classMetadata = classMetadata;
+        this.scannedClasses = scannedClasses;
+        this.scanAll = scanAll;
+    }
+
+    @Override
+    public void resolve(String flagName) {
+        for (String className : declarations.classes(flagName)) {
+            if (inPackages(className) && scannedClasses.add(className)) {
+                Class<?> clazz;
+                try {
+                    clazz = Class.forName(className, true, loader);
+                } catch (ClassNotFoundException e) {
+                    // Stale entry of a class deleted in an incremental build
+                    continue;
+                }
+                classScanner.scanClass(clazz, flags, classMetadata);
+            }
+        }
+    }
+
+    @Override
+    public boolean resolveAll() {
+        if (scannedAll) {
+            return false;
+        }
+        scannedAll = true;
+        scanAll.run();
+        return true;
+    }
+
+    private boolean inPackages(String className) {
+        for (String pkg : packages) {
+            if (className.startsWith(pkg) && (className.length() == pkg.length()
+                    || className.charAt(pkg.length()) == '.')) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
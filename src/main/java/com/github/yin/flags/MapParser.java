@@ -1,9 +1,12 @@
 package com.github.yin.flags;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -15,9 +18,18 @@ import java.util.Map;
 public class MapParser implements Parser<Map<String, String>> {
     private static final Logger log = LoggerFactory.getLogger(GflagsParser.class);
     private final FlagIndex<FlagMetadata> flags;
+    private final FlagResolver resolver;
 
     public MapParser(@Nonnull FlagIndex<FlagMetadata> flags) {
+        this(flags, null);
+    }
+
+    /**
+     * Creates a parser indexing flags on demand through a {@link FlagResolver}.
+     */
+    public MapParser(@Nonnull FlagIndex<FlagMetadata> flags, @Nullable FlagResolver resolver) {
         this.flags = flags;
+        this.resolver = resolver;
     }
 
     @Override
@@ -28,15 +40,44 @@ public class MapParser implements Parser<Map<String, String>> {
         return Collections.EMPTY_LIST;
     }
 
+    /**
+     * Resolves keys to flags once, for applying many value maps through {@link KeyBindings}.
+     * Unknown and ambiguous keys are reported now and ignored when applying values.
+     */
+    public KeyBindings compile(@Nonnull Iterable<String> keys) {
+        ImmutableList<String> bound = ImmutableSet.copyOf(keys).asList();
+        Flag<?>[] bindings = new Flag<?>[bound.size()];
+        for (int i = 0; i < bindings.length; i++) {
+            bindings[i] = lookup(bound.get(i));
+        }
+        return new KeyBindings(bound, bindings);
+    }
+
     protected void next(String key, String value) {
-        Collection<FlagMetadata> flagsByName = flags.byName().get(key);
+        Flag<?> flag = lookup(key);
+        if (flag != null) {
+            flag.parse(value);
+        }
+    }
+
+    /**
+     * Finds the flag of a name, or reports it as unknown or ambiguous and returns {@code null}.
+     */
+    private Flag<?> lookup(String key) {
+        if (resolver != null) {
+            resolver.resolve(key);
+        }
+        Collection<FlagMetadata> flagsByName = WeakFlag.live(flags.byName().get(key));
         if (flagsByName.size() == 1) {
-            flagsByName.iterator().next().flag().parse(value);
+            return flagsByName.iterator().next().flag();
+        } else if (flagsByName.isEmpty() && resolver != null && resolver.resolveAll()) {
+            return lookup(key);
         } else if (flagsByName.isEmpty()) {
             errorUnknownFlag(key);
         } else {
             errorAmbigousFlag(key, flagsByName);
         }
+        return null;
     }
 
     protected void errorUnknownFlag(String flag) {
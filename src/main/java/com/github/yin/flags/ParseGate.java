@@ -0,0 +1,197 @@
+package com.github.yin.flags;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Holds back readers of {@link BasicFlag}'s while flag values are parsed on a background thread,
+ * see {@link Flags#parseAsync(String[], Iterable)}. With no parse pending, reading a flag costs
+ * one extra volatile read.
+ *
+ * Until the arguments are parsed, readers of all flags wait. Afterwards, only readers of flags
+ * given in the arguments wait for the values to be applied. The background thread itself, and
+ * code it runs, such as static initializers of scanned classes and validators, reads flags
+ * without waiting.
+ *
+ * A thread reading a flag from a static initializer of a class the background thread is about
+ * to scan would deadlock. Readers therefore wait at most {@value #TIMEOUT_PROPERTY} milliseconds,
+ * {@value #DEFAULT_TIMEOUT_MILLIS} by default, and then fail with an {@link IllegalStateException}
+ * describing where the background thread is stuck.
+ *
+ * @author yin
+ */
+final class ParseGate {
+    /** System property setting how long readers wait for values parsed in the background */
+    static final String TIMEOUT_PROPERTY = "flags.asyncTimeoutMillis";
+    static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    @VisibleForTesting
+    static volatile long timeoutMillis = Long.getLong(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_MILLIS);
+    private static final ThreadLocal<Boolean> applying = new ThreadLocal<>();
+    private static volatile ParseGate pending;
+
+    private final Pending<?> result;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Set<Flag<?>> affected;
+    private volatile Thread owner;
+
+    /**
+     * Future of a background parse. It can be cancelled only until the values start being
+     * applied, so a cancelled parse never changes any flag. Readers stop waiting as soon as the
+     * parse is cancelled.
+     */
+    static final class Pending<T> extends CompletableFuture<T> {
+        private ParseGate gate;
+        private boolean committed;
+
+        @Override
+        public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+            if (committed || !super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+            open(gate);
+            return true;
+        }
+
+        private synchronized boolean commit() {
+            if (isCancelled()) {
+                return false;
+            }
+            committed = true;
+            return true;
+        }
+    }
+
+    private ParseGate(Pending<?> result) {
+        this.result = result;
+    }
+
+    /**
+     * Runs a task applying flag values on an executor. Until the task completes, readers of flags
+     * wait. Tasks should be submitted to a single-threaded executor, so the last task submitted
+     * completes after the others.
+     */
+    static synchronized <T> CompletableFuture<T> submit(Executor executor, Function<ParseGate, T> task) {
+        Pending<T> result = new Pending<>();
+        ParseGate gate = new ParseGate(result);
+        result.gate = gate;
+        pending = gate;
+        executor.execute(() -> {
+            if (gate.cancelled()) {
+                return;
+            }
+            gate.owner = Thread.currentThread();
+            applying.set(Boolean.TRUE);
+            T value = null;
+            Throwable failure = null;
+            try {
+                value = task.apply(gate);
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                applying.remove();
+                gate.owner = null;
+                open(gate);
+            }
+            if (failure == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(failure);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Wraps a task running on the same executor as parses, so that it does not wait for a parse
+     * queued after it.
+     */
+    static Runnable exempt(Runnable task) {
+        return () -> {
+            applying.set(Boolean.TRUE);
+            try {
+                task.run();
+            } finally {
+                applying.remove();
+            }
+        };
+    }
+
+    /**
+     * Waits for a value of a flag being applied in the background.
+     * @param flag flag being read, or {@code null} to wait for all values
+     * @throws IllegalStateException if the values were not applied in time
+     */
+    static void await(Flag<?> flag) {
+        ParseGate gate = pending;
+        if (gate == null || applying.get() != null) {
+            return;
+        }
+        Set<Flag<?>> affected = gate.affected;
+        if (flag != null && affected != null && !affected.contains(flag)) {
+            return;
+        }
+        if (!Uninterruptibles.awaitUninterruptibly(gate.done, timeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException(gate.stuck());
+        }
+    }
+
+    /**
+     * Lets readers of flags missing in the parsed arguments go on.
+     */
+    void narrow(ParseResult parsed) {
+        Set<Flag<?>> flags = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (FlagID flagID : parsed.values().keySet()) {
+            flags.add(parsed.plan().binding(flagID).flag);
+        }
+        affected = flags;
+    }
+
+    /**
+     * Returns {@code true} if the parse was cancelled, the task should stop without applying
+     * any values.
+     */
+    boolean cancelled() {
+        return result.isCancelled();
+    }
+
+    /**
+     * Marks the start of applying values. Returns {@code false} if the parse was cancelled and
+     * no values may be applied.
+     */
+    boolean commit() {
+        return result.commit();
+    }
+
+    private String stuck() {
+        StringBuilder message = new StringBuilder("Flags parsed in background were not applied within ")
+                .append(timeoutMillis).append(" ms");
+        Thread thread = owner;
+        if (thread != null) {
+            message.append(", ").append(thread.getName()).append(" is ").append(thread.getState());
+            StackTraceElement[] stack = thread.getStackTrace();
+            for (StackTraceElement frame : Arrays.asList(stack).subList(0, Math.min(stack.length, 8))) {
+                message.append("\n\tat ").append(frame);
+            }
+        }
+        return message.append("\nStatic initializers of classes in scanned packages must not read flags,"
+                + " or the scan deadlocks").toString();
+    }
+
+    private static synchronized void open(ParseGate gate) {
+        if (pending == gate) {
+            pending = null;
+        }
+        gate.done.countDown();
+    }
+}
@@ -0,0 +1,226 @@
+package com.github.yin.flags;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses command-line arguments under the same rules as {@link GflagsParser}, but against a
+ * snapshot of a {@link FlagIndex} taken by {@link #compile(FlagIndex)}. Flag names are resolved
+ * once, when the plan is compiled.
+ *
+ * A plan is immutable and may be shared by any number of threads. Each call to
+ * {@link #parse(String[])} returns values in a new {@link ParseResult} and leaves the
+ * {@link Flag}'s untouched, which makes plans useful for validating arguments and dry runs.
+ *
+ * @author yin
+ */
+public final class ParsePlan {
+    private final ImmutableMap<String, Binding> bindings;
+    private final ImmutableMap<FlagID, Binding> bindingsByID;
+    private final Map<Flag<?>, FlagID> flagIDs;
+
+    /**
+     * Resolved flag name. Ambiguous names are bound to all their candidates.
+     */
+    static final class Binding {
+        final FlagMetadata meta;
+        final Flag<?> flag;
+        final BasicFlag.ConvertibleFlag<Object> convertible;
+        final ImmutableList<FlagID> candidates;
+        final boolean bool;
+
+        private Binding(FlagMetadata meta, ImmutableList<FlagID> candidates) {
+            this.meta = meta;
+            this.flag = meta != null ? WeakFlag.unwrap(meta.flag()) : null;
+            this.convertible = convertible(flag);
+            this.candidates = candidates;
+            this.bool = flag instanceof BasicFlag.BooleanFlag;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static BasicFlag.ConvertibleFlag<Object> convertible(Flag<?> flag) {
+            return flag instanceof BasicFlag.ConvertibleFlag ? (BasicFlag.ConvertibleFlag<Object>) flag : null;
+        }
+
+        boolean ambiguous() {
+            return meta == null;
+        }
+
+        /**
+         * Tells whether values of the flag can be converted and validated without changing the
+         * flag. Other flags are only parsed when applied.
+         */
+        boolean validatable() {
+            return convertible != null;
+        }
+
+        /**
+         * Converts a value without changing the flag. Values of flags which are not
+         * {@link BasicFlag.ConvertibleFlag}'s are kept as strings.
+         */
+        Object convert(String value) {
+            return convertible != null ? convertible.convert(value) : value;
+        }
+
+        /**
+         * Returns the validator attached to the flag, or {@code null} if the flag has none or its
+         * values are kept as strings.
+         */
+        Flag.Validator<Object> validator() {
+            return convertible != null ? convertible.validator : null;
+        }
+
+        void apply(Object value, boolean validated) {
+            if (convertible == null) {
+                flag.parse((String) value);
+            } else if (validated) {
+                convertible.inject(value);
+            } else {
+                convertible.set(value);
+            }
+        }
+    }
+
+    private ParsePlan(ImmutableMap<String, Binding> bindings, ImmutableMap<FlagID, Binding> bindingsByID,
+                      Map<Flag<?>, FlagID> flagIDs) {
+        this.bindings = bindings;
+        this.bindingsByID = bindingsByID;
+        this.flagIDs = flagIDs;
+    }
+
+    /**
+     * Compiles a plan from flags currently present in the index. Flags added to the index later
+     * are not seen by the plan.
+     */
+    public static ParsePlan compile(@Nonnull FlagIndex<FlagMetadata> flags) {
+        ImmutableMap.Builder<String, Binding> bindings = ImmutableMap.builder();
+        ImmutableMap.Builder<FlagID, Binding> bindingsByID = ImmutableMap.builder();
+        Map<Flag<?>, FlagID> flagIDs = new IdentityHashMap<>();
+        for (Map.Entry<String, Collection<FlagMetadata>> entry : flags.byName().asMap().entrySet()) {
+            Collection<FlagMetadata> candidates = WeakFlag.live(entry.getValue());
+            if (candidates.isEmpty()) {
+                continue;
+            } else if (candidates.size() == 1) {
+                FlagMetadata meta = candidates.iterator().next();
+                Binding binding = new Binding(meta, ImmutableList.of(meta.flagID()));
+                bindings.put(entry.getKey(), binding);
+                bindingsByID.put(meta.flagID(), binding);
+                flagIDs.put(binding.flag, meta.flagID());
+            } else {
+                ImmutableList.Builder<FlagID> ids = ImmutableList.builder();
+                for (FlagMetadata meta : candidates) {
+                    ids.add(meta.flagID());
+                }
+                bindings.put(entry.getKey(), new Binding(null, ids.build()));
+            }
+        }
+        return new ParsePlan(bindings.build(), bindingsByID.build(), flagIDs);
+    }
+
+    /**
+     * Parses command-line arguments into a new {@link ParseResult}. Problems are collected in
+     * {@link ParseResult#errors()} instead of being thrown or logged. Validators are not run,
+     * use {@link ValidationEngine#validate(ParseResult)} to validate the result. Flags are not
+     * read while parsing, values of flags missing in the arguments are read when requested.
+     */
+    public ParseResult parse(@Nonnull String[] args) {
+        List<String> arguments = new ArrayList<>();
+        Map<FlagID, Object> values = new LinkedHashMap<>();
+        List<String> errors = new ArrayList<>();
+        Binding pending = null;
+        for (String arg : args) {
+            String flag;
+            if (arg.startsWith("--")) {
+                flag = arg.substring(2);
+            } else if (arg.startsWith("-")) {
+                flag = arg.substring(1);
+            } else if (pending != null) {
+                put(pending, arg, values, errors);
+                pending = null;
+                continue;
+            } else {
+                arguments.add(arg);
+                continue;
+            }
+            if (pending != null) {
+                errors.add("Option " + pending.meta.flagID().fqn() + " has no value");
+                pending = null;
+            }
+            int eq = flag.indexOf('=');
+            if (eq >= 0) {
+                Binding binding = resolve(flag.substring(0, eq), arg, errors);
+                if (binding != null) {
+                    put(binding, flag.substring(eq + 1), values, errors);
+                }
+            } else if (bindings.containsKey(flag) || !flag.startsWith("no")) {
+                Binding binding = resolve(flag, arg, errors);
+                if (binding == null) {
+                    continue;
+                }
+                if (binding.bool) {
+                    put(binding, "true", values, errors);
+                } else {
+                    pending = binding;
+                }
+            } else {
+                Binding binding = resolve(flag.substring(2), arg, errors);
+                if (binding == null) {
+                    continue;
+                }
+                if (binding.bool) {
+                    put(binding, "false", values, errors);
+                } else {
+                    errors.add("Unknown flag: " + arg);
+                }
+            }
+        }
+        if (pending != null) {
+            errors.add("Option " + pending.meta.flagID().fqn() + " has no value");
+        }
+        return new ParseResult(this, arguments, values, errors);
+    }
+
+    /**
+     * Returns the ID of a flag known to this plan, or {@code null}.
+     */
+    FlagID flagID(Flag<?> flag) {
+        return flagIDs.get(flag);
+    }
+
+    Binding binding(FlagID flagID) {
+        return bindingsByID.get(flagID);
+    }
+
+    private Binding resolve(String key, String original, List<String> errors) {
+        Binding binding = bindings.get(key);
+        if (binding == null) {
+            errors.add("Unknown flag: " + original);
+            return null;
+        } else if (binding.ambiguous()) {
+            errors.add("Flag " + original + " resolves in multiple classes: " + binding.candidates);
+            return null;
+        }
+        return binding;
+    }
+
+    private static void put(Binding binding, String value, Map<FlagID, Object> values, List<String> errors) {
+        FlagID flagID = binding.meta.flagID();
+        if (binding.flag instanceof ComputedFlag) {
+            errors.add("Flag " + flagID.fqn() + " is computed from other flags and cannot be set");
+            return;
+        }
+        try {
+            values.put(flagID, binding.convert(value));
+        } catch (RuntimeException e) {
+            errors.add("Invalid value for flag " + flagID.fqn() + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.yin.flags;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds flag values, non-flag arguments and problems found by a single
+ * {@link ParsePlan#parse(String[])} call. Values are converted using
+ * {@link BasicFlag.ConvertibleFlag#convert(String)}, values of other {@link Flag}'s are kept as strings.
+ *
+ * @author yin
+ */
+public final class ParseResult implements FlagValues {
+    private final ParsePlan plan;
+    private final ImmutableList<String> arguments;
+    private final ImmutableMap<FlagID, Object> values;
+    private final ImmutableList<String> errors;
+
+    ParseResult(ParsePlan plan, List<String> arguments, Map<FlagID, Object> values, List<String> errors) {
+        this.plan = plan;
+        this.arguments = ImmutableList.copyOf(arguments);
+        this.values = ImmutableMap.copyOf(values);
+        this.errors = ImmutableList.copyOf(errors);
+    }
+
+    /** Returns non-flag arguments in order of appearance */
+    public List<String> arguments() {
+        return arguments;
+    }
+
+    /** Returns values of flags present in the arguments */
+    public Map<FlagID, Object> values() {
+        return values;
+    }
+
+    /** Returns descriptions of all problems found while parsing */
+    public List<String> errors() {
+        return errors;
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+    /**
+     * Returns the parsed value of a flag, or if it was not present in the arguments, the value it
+     * has now. Use {@link ValidationEngine#validate(ParseResult)} for a view which does not change
+     * while validators read it.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(@Nonnull Flag<T> flag) {
+        FlagID flagID = plan.flagID(flag);
+        if (flagID != null && values.containsKey(flagID)) {
+            return (T) values.get(flagID);
+        }
+        return flag.get();
+    }
+
+    /** Returns true if a value of the flag was present in the arguments */
+    boolean parsed(@Nonnull Flag<?> flag) {
+        FlagID flagID = plan.flagID(flag);
+        return flagID != null && values.containsKey(flagID);
+    }
+
+    /**
+     * Injects parsed values into their {@link Flag}'s, validating each value as it is injected.
+     * @throws Flags.ParseException if any errors were found while parsing
+     */
+    public void apply() {
+        apply(false);
+    }
+
+    /**
+     * Injects parsed values into their {@link Flag}'s. Validators are not run again if the
+     * values were validated by a {@link ValidationEngine} already, and then no value is injected
+     * unless all flags are {@link BasicFlag.ConvertibleFlag}'s, which cannot fail to apply.
+     */
+    void apply(boolean validated) {
+        if (hasErrors()) {
+            throw new Flags.ParseException("Cannot apply flags with errors: " + errors);
+        }
+        if (validated) {
+            for (FlagID flagID : values.keySet()) {
+                if (!plan.binding(flagID).validatable()) {
+                    throw new Flags.ParseException("Flag " + flagID.fqn() + " cannot be validated before it is applied");
+                }
+            }
+        }
+        for (Map.Entry<FlagID, Object> entry : values.entrySet()) {
+            plan.binding(entry.getKey()).apply(entry.getValue(), validated);
+        }
+    }
+
+    ParsePlan plan() {
+        return plan;
+    }
+}
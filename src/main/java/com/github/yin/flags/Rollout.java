@@ -0,0 +1,197 @@
+package com.github.yin.flags;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.primitives.Longs;
+
+import javax.annotation.Nonnull;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Decides whether a feature is enabled for a user, tenant or other numeric key. Rules are parsed
+ * from a string of {@code ;}-separated clauses:
+ * <pre>
+ * 10%                              enabled for 10% of keys
+ * 25%;allow=17,42;deny=7           25% of keys, always for 17 and 42, never for 7
+ * 50%;salt=checkout                50% of keys, chosen independently of other rollouts
+ * on, off                          all or no keys
+ * </pre>
+ *
+ * Rules are compiled once, into sorted arrays of keys and a threshold for a 64-bit hash of the
+ * key. {@link #isEnabledFor(long)} allocates nothing. Keys stay enabled while the percentage
+ * grows, since each key is enabled by comparing its hash against the threshold.
+ *
+ * @author yin
+ */
+public final class Rollout {
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+    private static final BigDecimal HASH_RANGE = BigDecimal.valueOf(1L << 32);
+
+    public static final Rollout OFF = new Rollout(BigDecimal.ZERO, new long[0], new long[0], "");
+    public static final Rollout ON = new Rollout(HUNDRED, new long[0], new long[0], "");
+
+    private final BigDecimal percentage;
+    private final long threshold;
+    private final long[] allow;
+    private final long[] deny;
+    private final String salt;
+    private final long saltHash;
+
+    private Rollout(BigDecimal percentage, long[] allow, long[] deny, String salt) {
+        this.percentage = percentage;
+        this.threshold = percentage.multiply(HASH_RANGE).divide(HUNDRED, BigDecimal.ROUND_HALF_UP).longValue();
+        this.allow = allow;
+        this.deny = deny;
+        this.salt = salt;
+        this.saltHash = hash(salt);
+    }
+
+    /**
+     * Parses and compiles rules.
+     * @throws Flags.ParseException if the rules are malformed
+     */
+    public static Rollout parse(@Nonnull String rules) {
+        String trimmed = rules.trim().toLowerCase(Locale.ROOT);
+        if (trimmed.equals("on") || trimmed.equals("true")) {
+            return ON;
+        } else if (trimmed.equals("off") || trimmed.equals("false")) {
+            return OFF;
+        }
+        BigDecimal percentage = null;
+        long[] allow = null;
+        long[] deny = null;
+        String salt = null;
+        for (String clause : Splitter.on(';').trimResults().omitEmptyStrings().split(rules)) {
+            if (clause.endsWith("%")) {
+                check(percentage == null, rules, "percentage given twice");
+                percentage = percentage(clause.substring(0, clause.length() - 1).trim(), rules);
+            } else if (clause.startsWith("allow=")) {
+                check(allow == null, rules, "allow list given twice");
+                allow = keys(clause.substring(6), rules);
+            } else if (clause.startsWith("deny=")) {
+                check(deny == null, rules, "deny list given twice");
+                deny = keys(clause.substring(5), rules);
+            } else if (clause.startsWith("salt=")) {
+                check(salt == null, rules, "salt given twice");
+                salt = clause.substring(5).trim();
+            } else {
+                throw new Flags.ParseException("Invalid rollout rules: " + rules + ", unknown clause " + clause);
+            }
+        }
+        return new Rollout(percentage != null ? percentage : BigDecimal.ZERO,
+                allow != null ? allow : new long[0], deny != null ? deny : new long[0], salt != null ? salt : "");
+    }
+
+    /**
+     * Tells whether the feature is enabled for a key. Denied keys are never enabled, allowed
+     * keys always are, other keys are enabled if their hash falls within the percentage.
+     */
+    public boolean isEnabledFor(long key) {
+        if (deny.length > 0 && Arrays.binarySearch(deny, key) >= 0) {
+            return false;
+        }
+        if (allow.length > 0 && Arrays.binarySearch(allow, key) >= 0) {
+            return true;
+        }
+        return (mix(key ^ saltHash) >>> 32) < threshold;
+    }
+
+    /** Returns percentage of keys enabled, not counting allowed and denied keys */
+    public BigDecimal percentage() {
+        return percentage;
+    }
+
+    public String salt() {
+        return salt;
+    }
+
+    /**
+     * Returns rules in a form accepted by {@link #parse(String)}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder rules = new StringBuilder(percentage.stripTrailingZeros().toPlainString()).append('%');
+        if (allow.length > 0) {
+            rules.append(";allow=").append(Joiner.on(',').join(Longs.asList(allow)));
+        }
+        if (deny.length > 0) {
+            rules.append(";deny=").append(Joiner.on(',').join(Longs.asList(deny)));
+        }
+        if (!salt.isEmpty()) {
+            rules.append(";salt=").append(salt);
+        }
+        return rules.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Rollout)) {
+            return false;
+        }
+        Rollout that = (Rollout) o;
+        return percentage.compareTo(that.percentage) == 0 && Arrays.equals(allow, that.allow)
+                && Arrays.equals(deny, that.deny) && salt.equals(that.salt);
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    private static BigDecimal percentage(String value, String rules) {
+        try {
+            BigDecimal percentage = new BigDecimal(value);
+            check(percentage.signum() >= 0 && percentage.compareTo(HUNDRED) <= 0, rules,
+                    "percentage must be between 0 and 100");
+            return percentage;
+        } catch (NumberFormatException e) {
+            throw new Flags.ParseException("Invalid rollout rules: " + rules + ", bad percentage " + value, e);
+        }
+    }
+
+    private static long[] keys(String list, String rules) {
+        List<Long> parsed = new ArrayList<>();
+        try {
+            for (String key : Splitter.on(',').trimResults().omitEmptyStrings().split(list)) {
+                parsed.add(Long.parseLong(key));
+            }
+        } catch (NumberFormatException e) {
+            throw new Flags.ParseException("Invalid rollout rules: " + rules + ", bad key list " + list, e);
+        }
+        long[] keys = Longs.toArray(parsed);
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    private static void check(boolean condition, String rules, String message) {
+        if (!condition) {
+            throw new Flags.ParseException("Invalid rollout rules: " + rules + ", " + message);
+        }
+    }
+
+    /** Finalization step of MurmurHash3, spreading consecutive keys over the whole range */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return value.isEmpty() ? 0 : hash;
+    }
+}
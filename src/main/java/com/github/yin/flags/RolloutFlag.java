@@ -0,0 +1,36 @@
+package com.github.yin.flags;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Feature toggle enabled for a part of users, tenants or other numeric keys, as described by
+ * {@link Rollout}:
+ * <pre>
+ * {@literal @}FlagDesc("Keys using the new checkout")
+ * static final RolloutFlag newCheckout = Flags.createRollout("off");
+ *
+ * if (newCheckout.isEnabledFor(tenantId)) {
+ *     // ...
+ * }
+ * </pre>
+ *
+ * @author yin
+ */
+public class RolloutFlag extends BasicFlag.ConvertibleFlag<Rollout> {
+    public RolloutFlag(@Nonnull Rollout defaultz) {
+        super(defaultz);
+    }
+
+    @Override
+    public Rollout convert(@Nonnull String value) {
+        return Rollout.parse(value);
+    }
+
+    /**
+     * Tells whether the feature is enabled for a key under current rules.
+     */
+    public boolean isEnabledFor(long key) {
+        ParseGate.await(this);
+        return value.isEnabledFor(key);
+    }
+}
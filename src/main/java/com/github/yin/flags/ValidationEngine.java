@@ -0,0 +1,266 @@
+package com.github.yin.flags;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Validates flag values after all of them were parsed, instead of one by one while parsing.
+ * Flag {@link Flag.Validator}'s and cross-flag {@link CrossValidator}'s are independent of each
+ * other and run in parallel on a bounded pool. Every failure is reported in the returned
+ * {@link ValidationResult}, not only the first one.
+ *
+ * <pre>
+ * ValidationEngine engine = ValidationEngine.create(4)
+ *         .crossValidator(values -&gt; {
+ *             if (values.get(minThreads) &gt; values.get(maxThreads)) {
+ *                 throw new Flags.ParseException("minThreads exceeds maxThreads");
+ *             }
+ *         });
+ * List&lt;String&gt; arguments = Flags.parse(args, packages, engine);
+ * </pre>
+ *
+ * @author yin
+ */
+public class ValidationEngine implements AutoCloseable {
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final List<CrossValidator> crossValidators = new CopyOnWriteArrayList<>();
+
+    /**
+     * Validates relations among multiple flags. Values are read from a {@link FlagValues}
+     * view, which does not change during validation.
+     */
+    @FunctionalInterface
+    public interface CrossValidator {
+        void validate(FlagValues values);
+    }
+
+    /**
+     * Creates an engine running validators on the given executor. The executor is not shut down
+     * by {@link #close()}.
+     */
+    public ValidationEngine(@Nonnull ExecutorService executor) {
+        this(executor, false);
+    }
+
+    private ValidationEngine(ExecutorService executor, boolean ownsExecutor) {
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Creates an engine running validators on its own pool of daemon threads.
+     */
+    public static ValidationEngine create(int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("flags-validation-%d")
+                .setDaemon(true)
+                .build());
+        return new ValidationEngine(executor, true);
+    }
+
+    /**
+     * Adds a validator run on every validation after the flag validators.
+     */
+    public ValidationEngine crossValidator(@Nonnull CrossValidator validator) {
+        crossValidators.add(validator);
+        return this;
+    }
+
+    /**
+     * Validates values parsed by a {@link ParsePlan}. Flags missing in the result keep their
+     * current values, which are not validated again by flag validators. Cross-validators read
+     * current values on first use, a value read once does not change during the validation. Values of flags which
+     * are not {@link BasicFlag.ConvertibleFlag}'s could only be checked by applying them, so they
+     * are reported as failures.
+     */
+    public ValidationResult validate(@Nonnull ParseResult result) {
+        List<Task> tasks = new ArrayList<>();
+        List<ValidationResult.Failure> rejected = new ArrayList<>();
+        for (Map.Entry<FlagID, Object> entry : result.values().entrySet()) {
+            ParsePlan.Binding binding = result.plan().binding(entry.getKey());
+            if (!binding.validatable()) {
+                rejected.add(ValidationResult.Failure.create(entry.getKey(),
+                        new Flags.ParseException("Flag cannot be validated before it is applied")));
+                continue;
+            }
+            Flag.Validator<Object> validator = binding.validator();
+            if (validator != null) {
+                tasks.add(new FlagTask(entry.getKey(), validator, entry.getValue()));
+            }
+        }
+        ValidationResult validation = run(tasks, new CurrentValues(result));
+        if (rejected.isEmpty()) {
+            return validation;
+        }
+        rejected.addAll(validation.failures());
+        return new ValidationResult(rejected);
+    }
+
+    /**
+     * Validates values parsed by a {@link ParsePlan} and injects them into their flags, only if
+     * all of them are valid. Validators are not run again while injecting.
+     * @return result of the validation, no flag was changed unless it is valid
+     * @throws Flags.ParseException if the result has parse errors
+     */
+    public ValidationResult apply(@Nonnull ParseResult result) {
+        if (result.hasErrors()) {
+            throw new Flags.ParseException("Cannot apply flags with errors: " + result.errors());
+        }
+        ValidationResult validation = validate(result);
+        if (validation.isValid()) {
+            result.apply(true);
+        }
+        return validation;
+    }
+
+    /**
+     * Validates current values of all flags in an index. Only flags with validators are read
+     * upfront, flags read by cross-validators are read on first use.
+     */
+    @SuppressWarnings("unchecked")
+    public ValidationResult validate(@Nonnull FlagIndex<FlagMetadata> flags) {
+        List<Task> tasks = new ArrayList<>();
+        CurrentValues values = new CurrentValues(null);
+        for (FlagMetadata meta : flags.byFQN().values()) {
+            Flag<?> flag = WeakFlag.unwrap(meta.flag());
+            if (flag instanceof BasicFlag) {
+                Flag.Validator<Object> validator = ((BasicFlag<Object>) flag).validator;
+                if (validator != null) {
+                    tasks.add(new FlagTask(meta.flagID(), validator, values.get(flag)));
+                }
+            }
+        }
+        return run(tasks, values);
+    }
+
+    private ValidationResult run(List<Task> tasks, FlagValues values) {
+        for (CrossValidator validator : crossValidators) {
+            tasks.add(new CrossTask(validator, values));
+        }
+        List<Future<ValidationResult.Failure>> futures;
+        try {
+            futures = executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Flags.ParseException("Interrupted while validating flags", e);
+        }
+        List<ValidationResult.Failure> failures = Lists.newArrayList();
+        for (Future<ValidationResult.Failure> future : futures) {
+            try {
+                ValidationResult.Failure failure = future.get();
+                if (failure != null) {
+                    failures.add(failure);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new Flags.ParseException("Interrupted while validating flags", e);
+            } catch (ExecutionException e) {
+                failures.add(ValidationResult.Failure.create(null, e.getCause()));
+            }
+        }
+        return new ValidationResult(failures);
+    }
+
+    /**
+     * Shuts down the pool created by {@link #create(int)}.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * View of flag values for cross-validators of one validation. Parsed values are taken from the
+     * {@link ParseResult}, other flags are read on first use and kept, so each cross-validator
+     * sees the same value and flags no validator reads are never read.
+     */
+    private static final class CurrentValues implements FlagValues {
+        private static final Object NULL = new Object();
+
+        private final ParseResult parsed;
+        private final ConcurrentMap<Flag<?>, Object> current = new ConcurrentHashMap<>();
+
+        CurrentValues(@Nullable ParseResult parsed) {
+            this.parsed = parsed;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T get(Flag<T> flag) {
+            if (parsed != null && parsed.parsed(flag)) {
+                return parsed.get(flag);
+            }
+            Object value = current.get(flag);
+            if (value == null) {
+                T read = flag.get();
+                value = current.putIfAbsent(flag, read != null ? read : NULL);
+                if (value == null) {
+                    return read;
+                }
+            }
+            return value != NULL ? (T) value : null;
+        }
+    }
+
+    private interface Task extends Callable<ValidationResult.Failure> {
+    }
+
+    private static class FlagTask implements Task {
+        private final FlagID flagID;
+        private final Flag.Validator<Object> validator;
+        private final Object value;
+
+        FlagTask(FlagID flagID, Flag.Validator<Object> validator, Object value) {
+            this.flagID = flagID;
+            this.validator = validator;
+            this.value = value;
+        }
+
+        @Override
+        public ValidationResult.Failure call() {
+            try {
+                validator.validate(value);
+                return null;
+            } catch (RuntimeException e) {
+                return ValidationResult.Failure.create(flagID, e);
+            }
+        }
+    }
+
+    private static class CrossTask implements Task {
+        private final CrossValidator validator;
+        private final FlagValues values;
+
+        CrossTask(CrossValidator validator, FlagValues values) {
+            this.validator = validator;
+            this.values = values;
+        }
+
+        @Override
+        public ValidationResult.Failure call() {
+            try {
+                validator.validate(values);
+                return null;
+            } catch (RuntimeException e) {
+                return ValidationResult.Failure.create(null, e);
+            }
+        }
+    }
+}
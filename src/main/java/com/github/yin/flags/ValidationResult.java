@@ -0,0 +1,70 @@
+package com.github.yin.flags;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Holds all failures reported by a {@link ValidationEngine} run.
+ *
+ * @author yin
+ */
+public final class ValidationResult {
+    private final ImmutableList<Failure> failures;
+
+    /**
+     * Describes a single failed validator. Cross-flag validators report no {@link FlagID}.
+     */
+    @AutoValue
+    public static abstract class Failure {
+        public static Failure create(@Nullable FlagID flagID, Throwable cause) {
+            return new AutoValue_ValidationResult_Failure(flagID, cause);
+        }
+
+        @Nullable public abstract FlagID flagID();
+
+        public abstract Throwable cause();
+
+        public final String message() {
+            String message = cause().getMessage() != null ? cause().getMessage() : cause().toString();
+            return flagID() != null ? flagID().fqn() + ": " + message : message;
+        }
+    }
+
+    ValidationResult(List<Failure> failures) {
+        this.failures = ImmutableList.copyOf(failures);
+    }
+
+    public List<Failure> failures() {
+        return failures;
+    }
+
+    public boolean isValid() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * Throws a {@link Flags.ParseException} describing every failure, if there are any.
+     */
+    public void throwIfInvalid() {
+        if (isValid()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder("Flag validation failed:");
+        for (Failure failure : failures) {
+            message.append("\n\t").append(failure.message());
+        }
+        Flags.ParseException exception = new Flags.ParseException(message.toString(), failures.get(0).cause());
+        for (Failure failure : failures.subList(1, failures.size())) {
+            exception.addSuppressed(failure.cause());
+        }
+        throw exception;
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationResult" + failures;
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.yin.flags;
+
+import javax.annotation.Nonnull;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+/**
+ * Refers to a flag declared by a class of a plugin {@link ClassLoader}. The global index holds
+ * flags registered by {@link Flags#register(ClassLoader, Iterable)} through this proxy, so it
+ * does not keep their class loader reachable.
+ *
+ * @author yin
+ */
+public final class WeakFlag<T> implements Flag<T> {
+    private final FlagID flagID;
+    private final WeakReference<Flag<T>> target;
+
+    WeakFlag(@Nonnull FlagID flagID, @Nonnull Flag<T> target) {
+        this.flagID = flagID;
+        this.target = new WeakReference<>(target);
+    }
+
+    /**
+     * Returns the flag referred to by a {@link WeakFlag}, or the flag itself if it is not a weak
+     * flag or its class was already unloaded.
+     */
+    public static Flag<?> unwrap(@Nonnull Flag<?> flag) {
+        if (flag instanceof WeakFlag) {
+            Flag<?> target = ((WeakFlag<?>) flag).target.get();
+            return target != null ? target : flag;
+        }
+        return flag;
+    }
+
+    /**
+     * Tells if a flag is a {@link WeakFlag} whose class was unloaded. Such flags stay in the index
+     * until the registry notices their class loader was collected, parsers and dumps skip them.
+     */
+    public static boolean isCleared(@Nonnull Flag<?> flag) {
+        return flag instanceof WeakFlag && ((WeakFlag<?>) flag).target.get() == null;
+    }
+
+    /**
+     * Returns flags of a name which were not unloaded, the given collection itself if none was.
+     */
+    static Collection<FlagMetadata> live(Collection<FlagMetadata> flags) {
+        for (FlagMetadata meta : flags) {
+            if (isCleared(meta.flag())) {
+                return flags.stream().filter(m -> !isCleared(m.flag())).collect(Collectors.toList());
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * Returns the referred flag.
+     * @throws IllegalStateException if the class declaring the flag was unloaded
+     */
+    public Flag<T> target() {
+        Flag<T> flag = target.get();
+        if (flag == null) {
+            throw new IllegalStateException("Flag " + flagID.fqn() + " was unloaded");
+        }
+        return flag;
+    }
+
+    @Override
+    public Flag<T> validator(Validator<T> validator) {
+        target().validator(validator);
+        return this;
+    }
+
+    @Override
+    public void parse(String value) {
+        target().parse(value);
+    }
+
+    @Override
+    public T get() {
+        return target().get();
+    }
+
+    @Override
+    public String toString() {
+        return "WeakFlag{" + flagID.fqn() + "}";
+    }
+}
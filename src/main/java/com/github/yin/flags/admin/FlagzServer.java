@@ -0,0 +1,300 @@
+package com.github.yin.flags.admin;
+
+import com.github.yin.flags.Converters;
+import com.github.yin.flags.FlagChange;
+import com.github.yin.flags.FlagHistory;
+import com.github.yin.flags.FlagIndex;
+import com.github.yin.flags.FlagMetadata;
+import com.github.yin.flags.Flags;
+import com.github.yin.flags.ParsePlan;
+import com.github.yin.flags.ParseResult;
+import com.github.yin.flags.ValidationEngine;
+import com.github.yin.flags.ValidationResult;
+import com.github.yin.flags.WeakFlag;
+import com.github.yin.flags.analysis.UsageExporter;
+import com.google.common.base.Splitter;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves flags of a live process on {@code /flagz}, like the pages of gflags:
+ * <pre>
+ * GET  /flagz                      fqn=value lines of all flags
+ * GET  /flagz?format=json          names, descriptions and values as JSON
+ * GET  /flagz?prefix=com.example   flags of classes in a package
+ * POST /flagz                      update flags, e.g. threads=8&amp;mode=fast
+ * </pre>
+ *
+ * Responses are streamed with chunked encoding while iterating the index, so a dump of many
+ * flags is never buffered as a whole. Flags which cannot be read, e.g. because values parsed in
+ * background were not applied in time, are listed as unavailable with the reason. Updates name flags the same way as command-line arguments
+ * and are atomic: all values are converted and validated before any flag changes, and a single
+ * invalid value rejects the whole update with HTTP 400. Flags which are not
+ * {@link com.github.yin.flags.BasicFlag.ConvertibleFlag}'s cannot be validated without changing
+ * them, so they cannot be updated. Updates are recorded in {@link FlagHistory} with source
+ * {@link FlagChange.Source#ADMIN}.
+ *
+ * The endpoint has no authentication. Bind it to the loopback interface, or another address
+ * reachable only by operators. Updates sent by web browsers, recognized by their {@code Origin}
+ * or {@code Sec-Fetch-Site} headers, are refused with HTTP 403, so that a web page opened on the
+ * same host cannot change flags through the browser.
+ *
+ * The server is optional and not started by java-flags itself. Handlers run on a small pool of
+ * daemon threads, or on an executor passed by the application, e.g. one starting a virtual
+ * thread per task on JDKs providing them.
+ *
+ * @author yin
+ */
+public class FlagzServer implements AutoCloseable {
+    public static final String PATH = "/flagz";
+    public static final int DEFAULT_THREADS = 2;
+    private static final Logger log = LoggerFactory.getLogger(FlagzServer.class);
+
+    private final HttpServer server;
+    private final FlagIndex<FlagMetadata> flags;
+    private final ValidationEngine validation;
+    private final ExecutorService ownedExecutor;
+
+    /**
+     * Starts a server on a small pool of daemon threads.
+     * @param address address to listen on, e.g. the loopback interface
+     * @param validation engine validating updates
+     */
+    public static FlagzServer start(@Nonnull InetSocketAddress address, @Nonnull FlagIndex<FlagMetadata> flags,
+                                    @Nonnull ValidationEngine validation) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(DEFAULT_THREADS, new ThreadFactoryBuilder()
+                .setNameFormat("flagz-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            return new FlagzServer(address, flags, validation, executor, true);
+        } catch (IOException | RuntimeException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a server running handlers on an executor, which is not shut down by {@link #close()}.
+     */
+    public FlagzServer(@Nonnull InetSocketAddress address, @Nonnull FlagIndex<FlagMetadata> flags,
+                       @Nonnull ValidationEngine validation, @Nonnull ExecutorService executor) throws IOException {
+        this(address, flags, validation, executor, false);
+    }
+
+    private FlagzServer(InetSocketAddress address, FlagIndex<FlagMetadata> flags, ValidationEngine validation,
+                        ExecutorService executor, boolean ownsExecutor) throws IOException {
+        this.flags = flags;
+        this.validation = validation;
+        this.ownedExecutor = ownsExecutor ? executor : null;
+        this.server = HttpServer.create(address, 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /** Returns the address the server listens on, with the actual port */
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if ("GET".equals(exchange.getRequestMethod())) {
+                Map<String, String> query = decode(exchange.getRequestURI().getRawQuery());
+                dump(exchange, query.getOrDefault("prefix", ""), "json".equals(query.get("format")));
+            } else if ("POST".equals(exchange.getRequestMethod())) {
+                if (fromBrowser(exchange)) {
+                    respond(exchange, 403, "Updates from web browsers are not allowed");
+                    return;
+                }
+                byte[] body;
+                try (InputStream in = exchange.getRequestBody()) {
+                    body = ByteStreams.toByteArray(in);
+                }
+                update(exchange, decode(new String(body, StandardCharsets.UTF_8)));
+            } else {
+                exchange.getResponseHeaders().set("Allow", "GET, POST");
+                exchange.sendResponseHeaders(405, -1);
+            }
+        } catch (IllegalArgumentException | Flags.ParseException e) {
+            if (exchange.getResponseCode() != -1) {
+                // a streamed response was started, it ends when the exchange is closed
+                log.warn("Failed writing {}", PATH, e);
+            } else {
+                respond(exchange, 400, e.getMessage());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void dump(HttpExchange exchange, String prefix, boolean json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type",
+                (json ? "application/json" : "text/plain") + "; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            boolean first = true;
+            if (json) {
+                out.write("{\"flags\":[");
+            }
+            for (FlagMetadata meta : flags.byFQN().values()) {
+                if (!UsageExporter.inPackage(meta.flagID().className(), prefix)
+                        || WeakFlag.isCleared(meta.flag())) {
+                    // skips flags of unloaded plugins, not yet removed from the index
+                    continue;
+                }
+                Object value = null;
+                String error = null;
+                try {
+                    value = meta.flag().get();
+                } catch (IllegalStateException e) {
+                    // e.g. values parsed in background were not applied in time
+                    error = Splitter.on('\n').split(String.valueOf(e.getMessage())).iterator().next();
+                }
+                if (!json) {
+                    out.append(meta.flagID().fqn());
+                    if (error != null) {
+                        out.append(" unavailable: ").append(error).append('\n');
+                    } else {
+                        out.append('=').append(Converters.format(value)).append('\n');
+                    }
+                    continue;
+                }
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                out.write("{\"name\":");
+                json(meta.flagID().flagName(), out);
+                out.write(",\"fqn\":");
+                json(meta.flagID().fqn(), out);
+                out.write(",\"description\":");
+                json(meta.desc() != null ? meta.desc() : "", out);
+                out.write(",\"value\":");
+                if (value == null) {
+                    out.write("null");
+                } else {
+                    json(value.toString(), out);
+                }
+                if (error != null) {
+                    out.write(",\"error\":");
+                    json(error, out);
+                }
+                out.write('}');
+            }
+            if (json) {
+                out.write("]}\n");
+            }
+        }
+    }
+
+    private synchronized void update(HttpExchange exchange, Map<String, String> values) throws IOException {
+        List<String> args = new ArrayList<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (entry.getKey().indexOf('=') >= 0) {
+                throw new IllegalArgumentException("Flag name must not contain '=': " + entry.getKey());
+            }
+            args.add("--" + entry.getKey() + "=" + entry.getValue());
+        }
+        ParseResult result = ParsePlan.compile(flags).parse(args.toArray(new String[args.size()]));
+        if (result.hasErrors()) {
+            respond(exchange, 400, String.join("\n", result.errors()));
+            return;
+        }
+        ValidationResult validated;
+        FlagChange.Source previous = FlagHistory.source(FlagChange.Source.ADMIN);
+        try {
+            validated = validation.apply(result);
+        } finally {
+            FlagHistory.source(previous);
+        }
+        if (!validated.isValid()) {
+            StringBuilder message = new StringBuilder();
+            for (ValidationResult.Failure failure : validated.failures()) {
+                message.append(failure.message()).append('\n');
+            }
+            respond(exchange, 400, message.toString().trim());
+            return;
+        }
+        respond(exchange, 200, "Updated " + result.values().size() + " flags");
+    }
+
+    /**
+     * Tells whether a request was sent by a web browser. Browsers add {@code Origin} to POST
+     * requests and {@code Sec-Fetch-Site} to all requests, {@code none} meaning one typed in by
+     * the user.
+     */
+    private static boolean fromBrowser(HttpExchange exchange) {
+        String site = exchange.getRequestHeaders().getFirst("Sec-Fetch-Site");
+        return exchange.getRequestHeaders().containsKey("Origin") || (site != null && !"none".equals(site));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + '\n').getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static Map<String, String> decode(String form) throws UnsupportedEncodingException {
+        Map<String, String> values = new LinkedHashMap<>();
+        if (form == null) {
+            return values;
+        }
+        for (String pair : Splitter.on('&').omitEmptyStrings().split(form.trim())) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected name=value, got: " + pair);
+            }
+            values.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                    URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+        return values;
+    }
+
+    private static void json(String value, Writer out) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+}
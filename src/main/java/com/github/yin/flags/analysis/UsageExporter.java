@@ -0,0 +1,208 @@
+package com.github.yin.flags.analysis;
+
+import com.github.yin.flags.CompactFlagStore;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+
+/**
+ * Writes usage of flags in a {@link CompactFlagStore} as plain text, JSON, Markdown or a man page.
+ * Flags are written in a single pass in the order of the store, which is sorted already, and
+ * pieces of each line are appended directly to the output without building strings. Pass a
+ * buffered {@link Appendable}, e.g. a {@link java.io.BufferedWriter} or a {@link StringBuilder}.
+ *
+ * Only declarations are written, no flag is read, so exporting neither waits for values parsed
+ * in background nor computes {@link com.github.yin.flags.ComputedFlag}'s. Current values are
+ * served by {@link com.github.yin.flags.admin.FlagzServer}.
+ *
+ * @author yin
+ */
+public class UsageExporter {
+    public enum Format {TEXT, JSON, MARKDOWN, MAN}
+
+    private final Format format;
+
+    public UsageExporter(@Nonnull Format format) {
+        this.format = format;
+    }
+
+    /**
+     * Writes usage of all flags.
+     */
+    public void export(@Nonnull CompactFlagStore store, @Nonnull Appendable out) throws IOException {
+        export(store, "", out);
+    }
+
+    /**
+     * Writes usage of flags declared in a package and its subpackages, or in a single class.
+     * @param packagePrefix package or class name, empty for all flags
+     */
+    public void export(@Nonnull CompactFlagStore store, @Nonnull String packagePrefix, @Nonnull Appendable out)
+            throws IOException {
+        begin(out);
+        boolean first = true;
+        for (int classIndex = firstClass(store, packagePrefix); classIndex < store.classCount(); classIndex++) {
+            String className = store.className(classIndex);
+            if (!className.startsWith(packagePrefix)) {
+                break;
+            }
+            if (!inPackage(className, packagePrefix)) {
+                continue;
+            }
+            writeClass(store, classIndex, first, out);
+            first = false;
+        }
+        end(out);
+    }
+
+    private static int firstClass(CompactFlagStore store, String prefix) {
+        int index = store.classIndex(prefix);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Tells whether a class is a package prefix or one of its subpackages, or the prefix names
+     * the class itself. {@code com.example} does not match {@code com.examples.Main}.
+     */
+    public static boolean inPackage(@Nonnull String className, @Nonnull String prefix) {
+        return className.startsWith(prefix) && (prefix.isEmpty() || prefix.endsWith(".")
+                || className.length() == prefix.length() || className.charAt(prefix.length()) == '.');
+    }
+
+    private void begin(Appendable out) throws IOException {
+        switch (format) {
+            case JSON:
+                out.append("{\"classes\":[");
+                break;
+            case MAN:
+                out.append(".TH FLAGS 1\n.SH OPTIONS\n");
+                break;
+            default:
+        }
+    }
+
+    private void end(Appendable out) throws IOException {
+        if (format == Format.JSON) {
+            out.append("]}\n");
+        }
+    }
+
+    private void writeClass(CompactFlagStore store, int classIndex, boolean first, Appendable out) throws IOException {
+        String className = store.className(classIndex);
+        String desc = store.classDescription(classIndex);
+        switch (format) {
+            case TEXT:
+                out.append(className).append(":\n");
+                if (!desc.isEmpty()) {
+                    out.append(desc).append("\n\n");
+                }
+                for (int id = store.firstFlag(classIndex); id < store.endFlag(classIndex); id++) {
+                    out.append('\t').append(store.flagName(id)).append('\t').append(store.description(id)).append('\n');
+                }
+                out.append('\n');
+                break;
+            case JSON:
+                if (!first) {
+                    out.append(',');
+                }
+                out.append("{\"class\":");
+                json(className, out);
+                out.append(",\"description\":");
+                json(desc, out);
+                out.append(",\"flags\":[");
+                for (int id = store.firstFlag(classIndex); id < store.endFlag(classIndex); id++) {
+                    if (id > store.firstFlag(classIndex)) {
+                        out.append(',');
+                    }
+                    out.append("{\"name\":");
+                    json(store.flagName(id), out);
+                    out.append(",\"fqn\":");
+                    json(store.fqn(id), out);
+                    out.append(",\"description\":");
+                    json(store.description(id), out);
+                    out.append('}');
+                }
+                out.append("]}");
+                break;
+            case MARKDOWN:
+                out.append("## ");
+                markdown(className, out);
+                out.append("\n\n");
+                if (!desc.isEmpty()) {
+                    markdown(desc, out);
+                    out.append("\n\n");
+                }
+                out.append("| Flag | Description |\n|------|-------------|\n");
+                for (int id = store.firstFlag(classIndex); id < store.endFlag(classIndex); id++) {
+                    out.append("| `--").append(store.flagName(id)).append("` | ");
+                    markdown(store.description(id), out);
+                    out.append(" |\n");
+                }
+                out.append('\n');
+                break;
+            case MAN:
+                out.append(".SS ");
+                man(className, out);
+                out.append('\n');
+                if (!desc.isEmpty()) {
+                    man(desc, out);
+                    out.append('\n');
+                }
+                for (int id = store.firstFlag(classIndex); id < store.endFlag(classIndex); id++) {
+                    out.append(".TP\n\\fB\\-\\-");
+                    man(store.flagName(id), out);
+                    out.append("\\fR\n");
+                    man(store.description(id), out);
+                    out.append('\n');
+                }
+                break;
+        }
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static void json(String value, Appendable out) throws IOException {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (c < 0x20) {
+                out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private static void markdown(String value, Appendable out) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '|' || c == '\\' || c == '*' || c == '_' || c == '`') {
+                out.append('\\');
+            } else if (c == '\n') {
+                out.append(' ');
+                continue;
+            }
+            out.append(c);
+        }
+    }
+
+    private static void man(String value, Appendable out) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                out.append("\\e");
+            } else if (c == '-') {
+                out.append("\\-");
+            } else if ((c == '.' || c == '\'') && (i == 0 || value.charAt(i - 1) == '\n')) {
+                out.append("\\&").append(c);
+            } else {
+                out.append(c);
+            }
+        }
+    }
+}
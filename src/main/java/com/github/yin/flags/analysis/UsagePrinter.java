@@ -1,35 +1,77 @@
 package com.github.yin.flags.analysis;
 
 import com.github.yin.flags.ClassMetadataIndex;
+import com.github.yin.flags.CompactFlagStore;
 import com.github.yin.flags.FlagIndex;
 import com.github.yin.flags.FlagMetadata;
-import com.google.common.collect.ImmutableMultimap;
-import com.google.common.collect.Sets;
 
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.Set;
 
 /**
  * @author yin
  */
 public class UsagePrinter {
     public void printUsage(FlagIndex<FlagMetadata> flagMetaIndex, ClassMetadataIndex classMetaIndex, PrintStream out) {
-        ImmutableMultimap<String, FlagMetadata> links = flagMetaIndex.byClass();
-        for (String className : links.keySet()) {
-            Set<FlagMetadata> classFlags = Sets.newTreeSet(links.get(className));
-            out.println(className + ':');
-            if (classMetaIndex.classes().containsKey(className)) {
-                String desc = classMetaIndex.classes().get(className).desc();
-                if (desc != null && !desc.isEmpty()) {
-                    out.println(desc);
-                    out.println();
-                }
-            }
-            for (FlagMetadata link : classFlags) {
-                out.println("\t" + link.flagID().flagName() + "\t" + link.desc());
-            }
-            out.println();
+        printUsage(CompactFlagStore.from(flagMetaIndex, classMetaIndex), out);
+    }
+
+    /**
+     * Prints usage from a {@link CompactFlagStore}, in chunks of the character set of the stream.
+     */
+    public void printUsage(CompactFlagStore store, PrintStream out) {
+        Buffer buffer = new Buffer(out);
+        try {
+            new UsageExporter(UsageExporter.Format.TEXT).export(store, buffer);
+        } catch (IOException e) {
+            // PrintStream does not throw
+            throw new AssertionError(e);
         }
+        buffer.flush();
     }
 
+    /**
+     * Collects output in chunks, printing them in the character set of the stream.
+     */
+    private static final class Buffer implements Appendable {
+        private static final int CHUNK = 8192;
+
+        private final PrintStream out;
+        private final StringBuilder chunk = new StringBuilder(CHUNK + 256);
+
+        Buffer(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            chunk.append(csq);
+            return spill();
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            chunk.append(csq, start, end);
+            return spill();
+        }
+
+        @Override
+        public Appendable append(char c) {
+            chunk.append(c);
+            return spill();
+        }
+
+        private Appendable spill() {
+            if (chunk.length() >= CHUNK) {
+                flush();
+            }
+            return this;
+        }
+
+        void flush() {
+            out.append(chunk);
+            out.flush();
+            chunk.setLength(0);
+        }
+    }
 }
@@ -1,10 +1,15 @@
 package com.github.yin.flags.annotations;
 
 import com.github.yin.flags.*;
+import com.google.common.collect.Sets;
 import org.reflections.Reflections;
+import org.reflections.util.ClasspathHelper;
+import org.reflections.util.ConfigurationBuilder;
+import org.reflections.util.FilterBuilder;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.net.URL;
 import java.util.Set;
 
 /**
@@ -16,6 +21,34 @@ public class ClassScanner {
                 .scanPackage(flags, classMetaIndex);
     }
 
+    /**
+     * Scans a package only in resources visible to a class loader, but not to its parent. Classes
+     * are loaded through the class loader.
+     */
+    public void scanPackage(String packagePrefix, ClassLoader loader, FlagIndex<FlagMetadata> flags,
+                            ClassMetadataIndex classMetaIndex) {
+        Set<URL> urls = Sets.newHashSet(ClasspathHelper.forPackage(packagePrefix, loader));
+        if (loader.getParent() != null) {
+            urls.removeAll(ClasspathHelper.forPackage(packagePrefix, loader.getParent()));
+        }
+        if (urls.isEmpty()) {
+            return;
+        }
+        ConfigurationBuilder configuration = new ConfigurationBuilder()
+                .setUrls(urls)
+                .addClassLoader(loader)
+                .filterInputsBy(new FilterBuilder().includePackage(packagePrefix));
+        new Scanner(new Reflections(configuration))
+                .scanPackage(flags, classMetaIndex);
+    }
+
+    /**
+     * Indexes flags of a single class, without scanning the classpath.
+     */
+    public void scanClass(Class<?> clazz, FlagIndex<FlagMetadata> flags, ClassMetadataIndex classMetaIndex) {
+        new Scanner(null).scanClass(clazz, flags, classMetaIndex);
+    }
+
     private class Scanner {
         private Reflections reflections;
 
@@ -72,8 +105,10 @@ public class ClassScanner {
                 return FlagMetadata.create(parent.getCanonicalName(), field.getName(), "", flag);
             } else if (flagDescs.length == 1) {
                 FlagDesc desc = flagDescs[0];
-                String name = desc.name().isEmpty() ? field.getName() : desc.name();
-                return FlagMetadata.create(parent.getCanonicalName(), name, desc.value(), flag);
+                if (desc.name().isEmpty()) {
+                    return FlagMetadata.declared(parent, field.getName(), flag);
+                }
+                return FlagMetadata.create(parent.getCanonicalName(), desc.name(), desc.value(), flag);
             } else {
                 throw new Flags.ParseException("Flag " + parent.getCanonicalName() + "." + field.getName()
                         + " is annotated multiple times with @FlagDesc");
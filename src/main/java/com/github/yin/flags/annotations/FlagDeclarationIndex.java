@@ -0,0 +1,65 @@
+package com.github.yin.flags.annotations;
+
+import com.google.common.collect.ImmutableSetMultimap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Set;
+
+/**
+ * Maps flag names to binary names of classes declaring them, as recorded at compile time by
+ * {@link FlagDeclarationProcessor}. Indexes of all jars visible to a class loader are merged.
+ *
+ * @author yin
+ */
+public class FlagDeclarationIndex {
+    public static final String RESOURCE = "META-INF/java-flags/flags.index";
+
+    private final ImmutableSetMultimap<String, String> classes;
+
+    private FlagDeclarationIndex(ImmutableSetMultimap<String, String> classes) {
+        this.classes = classes;
+    }
+
+    /**
+     * Reads indexes of all jars and directories visible to a class loader.
+     */
+    public static FlagDeclarationIndex load(ClassLoader loader) {
+        ImmutableSetMultimap.Builder<String, String> classes = ImmutableSetMultimap.builder();
+        try {
+            Enumeration<URL> resources = loader.getResources(RESOURCE);
+            while (resources.hasMoreElements()) {
+                URL resource = resources.nextElement();
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(resource.openStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int space = line.indexOf(' ');
+                        if (space > 0) {
+                            classes.put(line.substring(0, space), line.substring(space + 1).trim());
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + RESOURCE, e);
+        }
+        return new FlagDeclarationIndex(classes.build());
+    }
+
+    /**
+     * Returns binary names of classes declaring a flag name.
+     */
+    public Set<String> classes(String flagName) {
+        return classes.get(flagName);
+    }
+
+    public boolean isEmpty() {
+        return classes.isEmpty();
+    }
+}
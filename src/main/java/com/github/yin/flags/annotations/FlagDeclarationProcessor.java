@@ -0,0 +1,169 @@
+package com.github.yin.flags.annotations;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Records which classes declare which flag names, at compile time, into
+ * {@value FlagDeclarationIndex#RESOURCE}. The index lets {@link com.github.yin.flags.Flags}
+ * scan only classes declaring flags given on the command-line, instead of whole packages.
+ *
+ * Types annotated with {@link FlagDesc} and their subtypes are indexed, same as in classpath
+ * scanning, and instance fields of type {@code Flag} are reported as errors. The processor runs
+ * only in compilations where {@link FlagDesc} is used, a subtype compiled without any
+ * {@code @FlagDesc} in the same compilation is not indexed.
+ *
+ * The processor is not registered as a service, so it does not slow down every compilation with
+ * java-flags on the classpath. Name it explicitly, along with other processors of the project:
+ * <pre>
+ * javac -processor com.github.yin.flags.annotations.FlagDeclarationProcessor ...
+ * </pre>
+ * or in Maven, with java-flags in {@code annotationProcessorPaths} of maven-compiler-plugin:
+ * <pre>
+ * &lt;annotationProcessors&gt;
+ *     &lt;annotationProcessor&gt;com.github.yin.flags.annotations.FlagDeclarationProcessor&lt;/annotationProcessor&gt;
+ * &lt;/annotationProcessors&gt;
+ * </pre>
+ *
+ * @author yin
+ */
+@SupportedAnnotationTypes("com.github.yin.flags.annotations.FlagDesc")
+public class FlagDeclarationProcessor extends AbstractProcessor {
+    private final Map<String, Set<String>> declarations = new TreeMap<>();
+    private final Set<String> processedClasses = new HashSet<>();
+    private boolean indexed;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        TypeElement flag = processingEnv.getElementUtils().getTypeElement("com.github.yin.flags.Flag");
+        if (flag == null) {
+            return false;
+        }
+        TypeMirror flagType = processingEnv.getTypeUtils().erasure(flag.asType());
+        for (TypeElement type : ElementFilter.typesIn(round.getRootElements())) {
+            process(type, flagType);
+        }
+        if (round.processingOver() && indexed) {
+            write();
+        }
+        return false;
+    }
+
+    /**
+     * Records flags of a type and its nested types. Like {@link ClassScanner}, which scans types
+     * annotated with {@link FlagDesc} and their subtypes, including interfaces.
+     */
+    private void process(TypeElement type, TypeMirror flagType) {
+        String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+        processedClasses.add(className);
+        if (isScanned(type)) {
+            indexed = true;
+            for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                TypeMirror fieldType = processingEnv.getTypeUtils().erasure(field.asType());
+                if (!processingEnv.getTypeUtils().isAssignable(fieldType, flagType)) {
+                    continue;
+                }
+                if (!field.getModifiers().contains(Modifier.STATIC)) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "Flag " + type.getQualifiedName() + "." + field.getSimpleName() + " is not a static field",
+                            field);
+                    continue;
+                }
+                FlagDesc desc = field.getAnnotation(FlagDesc.class);
+                String name = desc != null && !desc.name().isEmpty() ? desc.name() : field.getSimpleName().toString();
+                declarations.computeIfAbsent(name, key -> new TreeSet<>()).add(className);
+            }
+        }
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            process(nested, flagType);
+        }
+    }
+
+    /**
+     * Tells whether a type or any of its supertypes is annotated with {@link FlagDesc}.
+     */
+    private boolean isScanned(TypeElement type) {
+        if (type.getAnnotation(FlagDesc.class) != null) {
+            return true;
+        }
+        for (TypeMirror supertype : processingEnv.getTypeUtils().directSupertypes(type.asType())) {
+            Element element = processingEnv.getTypeUtils().asElement(supertype);
+            if (element instanceof TypeElement && isScanned((TypeElement) element)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keeps declarations of classes not compiled in this run, e.g. in an incremental build.
+     * Declarations of classes which were deleted are kept too, they are skipped at run-time.
+     */
+    private void mergeExisting() {
+        try {
+            FileObject existing = processingEnv.getFiler()
+                    .getResource(StandardLocation.CLASS_OUTPUT, "", FlagDeclarationIndex.RESOURCE);
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    if (space > 0 && !processedClasses.contains(line.substring(space + 1))) {
+                        declarations.computeIfAbsent(line.substring(0, space), key -> new TreeSet<>())
+                                .add(line.substring(space + 1));
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // No index from a previous build
+        }
+    }
+
+    private void write() {
+        mergeExisting();
+        try {
+            FileObject resource = processingEnv.getFiler()
+                    .createResource(StandardLocation.CLASS_OUTPUT, "", FlagDeclarationIndex.RESOURCE);
+            try (Writer out = new OutputStreamWriter(resource.openOutputStream(), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Set<String>> entry : declarations.entrySet()) {
+                    for (String className : entry.getValue()) {
+                        out.write(entry.getKey());
+                        out.write(' ');
+                        out.write(className);
+                        out.write('\n');
+                    }
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Cannot write " + FlagDeclarationIndex.RESOURCE + ": " + e.getMessage());
+        }
+    }
+}
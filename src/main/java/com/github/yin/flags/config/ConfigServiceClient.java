@@ -0,0 +1,262 @@
+package com.github.yin.flags.config;
+
+import com.github.yin.flags.FlagChange;
+import com.github.yin.flags.FlagHistory;
+import com.github.yin.flags.FlagIndex;
+import com.github.yin.flags.FlagMetadata;
+import com.github.yin.flags.MapParser;
+import com.github.yin.flags.ParsePlan;
+import com.github.yin.flags.ParseResult;
+import com.github.yin.flags.ValidationEngine;
+import com.github.yin.flags.ValidationResult;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps flag values in sync with a central config service, without restarts. The client
+ * long-polls an HTTP endpoint and applies only flags changed since the last known version,
+ * resolving flag names the same way as {@link MapParser}. A change is converted and validated as
+ * a whole before it is applied, so an invalid value never becomes visible. If any value of the
+ * change is unknown or invalid, its values are applied one by one instead, rejecting only these.
+ *
+ * The protocol is plain HTTP:
+ * <pre>
+ * GET /flags?version=41
+ * If-None-Match: "41"
+ *
+ * 200 OK                          304 Not Modified
+ * ETag: "42"                      (no change within the poll timeout)
+ *
+ * threads=16
+ * mode=slow
+ * </pre>
+ * The response body lists changed flags in {@link Properties} format. See
+ * {@link InProcessConfigServer} for a reference implementation.
+ *
+ * Every applied value is stored in a local last-known-good cache file, which is applied on
+ * {@link #start()}, before the service is contacted. Failed requests are retried with exponential
+ * back-off, randomized so that clients which failed together do not retry together.
+ *
+ * @author yin
+ */
+public class ConfigServiceClient implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(ConfigServiceClient.class);
+    static final long MIN_BACKOFF_MILLIS = 100;
+    static final long MAX_BACKOFF_MILLIS = 60000;
+    static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private final URL endpoint;
+    private final FlagIndex<FlagMetadata> flags;
+    private final Path cacheFile;
+    private final int readTimeoutMillis;
+    private final ValidationEngine validationEngine = new ValidationEngine(MoreExecutors.sameThreadExecutor());
+    private final Map<String, String> lastKnownGood = Maps.newTreeMap();
+    private ParsePlan plan;
+    private long planVersion;
+    private volatile long version;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @param endpoint URL of the config service flags endpoint
+     * @param flags index used to resolve flag names
+     * @param cacheFile last-known-good cache, created if it does not exist
+     * @param readTimeoutMillis must be longer than the poll timeout of the service
+     */
+    public ConfigServiceClient(@Nonnull URL endpoint, @Nonnull FlagIndex<FlagMetadata> flags,
+                               @Nonnull Path cacheFile, int readTimeoutMillis) {
+        this.endpoint = endpoint;
+        this.flags = flags;
+        this.cacheFile = cacheFile;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Applies the cache file, if it exists, and starts polling on a daemon thread.
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        if (Files.exists(cacheFile)) {
+            try (Reader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+                apply(load(reader), FlagChange.Source.FILE);
+            }
+        }
+        running = true;
+        thread = new Thread(this::run, "flags-config-client");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns version of the last applied change, or 0 if nothing was received yet.
+     */
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private void run() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (running) {
+            try {
+                poll();
+                backoff = MIN_BACKOFF_MILLIS;
+            } catch (IOException | RuntimeException e) {
+                long delay = jitter(backoff);
+                log.warn("Polling config service {} failed, retrying in {} ms", endpoint, delay, e);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Returns a delay between half of a back-off and all of it.
+     */
+    static long jitter(long backoff) {
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff - backoff / 2 + 1);
+    }
+
+    private void poll() throws IOException {
+        long current = version;
+        String separator = endpoint.getQuery() == null ? "?" : "&";
+        URL url = new URL(endpoint.toExternalForm() + separator + "version=" + current);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setRequestProperty("If-None-Match", '"' + Long.toString(current) + '"');
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return;
+            } else if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Config service responded with HTTP " + status);
+            }
+            long next = parseETag(connection.getHeaderField("ETag"));
+            Map<String, String> delta;
+            try (InputStream in = connection.getInputStream()) {
+                delta = load(new InputStreamReader(in, StandardCharsets.UTF_8));
+            }
+            apply(delta, FlagChange.Source.CONFIG_SERVICE);
+            version = next;
+            writeCache();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Converts and validates the whole change before it is injected. If the change has unknown
+     * flags or invalid values, each value is applied on its own instead, and the rejected ones
+     * are kept out of the cache.
+     */
+    private synchronized void apply(Map<String, String> delta, FlagChange.Source source) {
+        ParsePlan plan = plan();
+        FlagChange.Source previous = FlagHistory.source(source);
+        try {
+            ParseResult result = plan.parse(arguments(delta.entrySet()));
+            if (!result.hasErrors() && validationEngine.apply(result).isValid()) {
+                lastKnownGood.putAll(delta);
+                return;
+            }
+            for (Map.Entry<String, String> entry : delta.entrySet()) {
+                result = plan.parse(arguments(Collections.singleton(entry)));
+                if (result.hasErrors()) {
+                    log.error("Rejected value of flag {} from config service: {}", entry.getKey(), result.errors());
+                    continue;
+                }
+                ValidationResult validation = validationEngine.apply(result);
+                if (validation.isValid()) {
+                    lastKnownGood.put(entry.getKey(), entry.getValue());
+                } else {
+                    log.error("Rejected value of flag {} from config service: {}", entry.getKey(),
+                            validation.failures().get(0).message());
+                }
+            }
+        } finally {
+            FlagHistory.source(previous);
+        }
+    }
+
+    /**
+     * Returns a plan of the flags in the index, compiled again only after flags were added or removed.
+     */
+    private ParsePlan plan() {
+        long current = flags.version();
+        if (plan == null || planVersion != current) {
+            plan = ParsePlan.compile(flags);
+            planVersion = current;
+        }
+        return plan;
+    }
+
+    private static String[] arguments(Collection<Map.Entry<String, String>> values) {
+        String[] args = new String[values.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : values) {
+            args[i++] = "--" + entry.getKey() + "=" + entry.getValue();
+        }
+        return args;
+    }
+
+    private synchronized void writeCache() throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(lastKnownGood);
+        Path temp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(writer, "java-flags last-known-good config");
+        }
+        Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static Map<String, String> load(Reader reader) throws IOException {
+        Properties properties = new Properties();
+        properties.load(reader);
+        return Maps.fromProperties(properties);
+    }
+
+    private static long parseETag(String etag) throws IOException {
+        if (etag == null) {
+            throw new IOException("Config service response has no ETag");
+        }
+        try {
+            return Long.parseLong(etag.replace("\"", "").trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Config service responded with invalid ETag " + etag, e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.yin.flags.config;
+
+import com.google.common.collect.Maps;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal config service, implementing the protocol of {@link ConfigServiceClient} on the
+ * loopback interface. It stands in for a real service in tests, so the client can be checked
+ * without any external services.
+ *
+ * @author yin
+ */
+public class InProcessConfigServer implements AutoCloseable {
+    public static final String PATH = "/flags";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long pollTimeoutMillis;
+    private final Map<String, String> values = Maps.newHashMap();
+    private final Map<String, Long> versions = Maps.newHashMap();
+    private long version;
+    private int requests;
+
+    /**
+     * Starts the server on an ephemeral loopback port.
+     * @param pollTimeoutMillis how long a poll waits for changes before answering 304
+     */
+    public InProcessConfigServer(long pollTimeoutMillis) throws IOException {
+        this.pollTimeoutMillis = pollTimeoutMillis;
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public URL url() {
+        try {
+            return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), PATH);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Changes a flag value, waking up waiting polls.
+     */
+    public synchronized void set(String flag, String value) {
+        version++;
+        values.put(flag, value);
+        versions.put(flag, version);
+        notifyAll();
+    }
+
+    public synchronized long version() {
+        return version;
+    }
+
+    /** Returns number of requests received so far */
+    public synchronized int requests() {
+        return requests;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            long since = since(exchange.getRequestURI().getQuery());
+            Properties delta = new Properties();
+            long current;
+            synchronized (this) {
+                requests++;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pollTimeoutMillis);
+                long remaining;
+                while (version <= since && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                current = version;
+                for (Map.Entry<String, Long> entry : versions.entrySet()) {
+                    if (entry.getValue() > since) {
+                        delta.setProperty(entry.getKey(), values.get(entry.getKey()));
+                    }
+                }
+            }
+            exchange.getResponseHeaders().set("ETag", "\"" + current + '"');
+            if (current <= since) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody();
+                 Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                delta.store(writer, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static long since(String query) {
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("version=")) {
+                    return Long.parseLong(parameter.substring("version=".length()));
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.yin.flags.nativeimage;
+
+import com.github.yin.flags.Flags;
+import com.github.yin.flags.annotations.FlagDesc;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import org.graalvm.nativeimage.hosted.Feature;
+import org.graalvm.nativeimage.hosted.RuntimeClassInitialization;
+import org.graalvm.nativeimage.hosted.RuntimeReflection;
+import org.reflections.Reflections;
+
+import java.util.List;
+
+/**
+ * Scans flags while a GraalVM native image is being built. Classpath scanning and reflective
+ * field access do not work in a native image, so the populated flag index is stored in the image
+ * heap instead and only argument parsing is left for run-time.
+ *
+ * The feature is registered by {@code META-INF/native-image} configuration shipped with java-flags
+ * and does nothing unless package roots are passed to the image builder:
+ * <pre>
+ * native-image -Dflags.packages=com.example.app,com.example.lib -jar app.jar
+ * </pre>
+ *
+ * Classes in the listed packages are initialized at image build time, so the {@link
+ * com.github.yin.flags.Flag} instances in their static fields are the same ones stored in the
+ * index. At run-time, {@link Flags#parse(String[], Iterable)} skips the packages scanned here.
+ *
+ * @author yin
+ */
+public class FlagsFeature implements Feature {
+    /** System property listing comma-separated package roots to scan at image build time */
+    public static final String PACKAGES_PROPERTY = "flags.packages";
+
+    /**
+     * Library classes reachable from the populated flag index, kept complete by FlagsFeatureTest.
+     * Superclasses are initialized with their subclasses and need not be listed.
+     */
+    @VisibleForTesting
+    static final String[] INDEX_CLASSES = {
+            "com.github.yin.flags.Flags",
+            "com.github.yin.flags.Flags$Holder",
+            "com.github.yin.flags.FlagIndex",
+            "com.github.yin.flags.FlagIndex$View",
+            "com.github.yin.flags.FlagID",
+            "com.github.yin.flags.AutoValue_FlagID",
+            "com.github.yin.flags.FlagMetadata",
+            "com.github.yin.flags.AutoValue_FlagMetadata",
+            "com.github.yin.flags.ClassMetadata",
+            "com.github.yin.flags.AutoValue_ClassMetadata",
+            "com.github.yin.flags.ClassMetadataIndex",
+            "com.github.yin.flags.ClassLoaderRegistry",
+            "com.github.yin.flags.ClassLoaderRegistry$Registration",
+            "com.github.yin.flags.CompactFlagStore",
+            "com.github.yin.flags.ParseGate",
+            "com.github.yin.flags.BasicFlag",
+            "com.github.yin.flags.BasicFlag$StringFlag",
+            "com.github.yin.flags.BasicFlag$BooleanFlag",
+            "com.github.yin.flags.BasicFlag$IntegerFlag",
+            "com.github.yin.flags.BasicFlag$LongFlag",
+            "com.github.yin.flags.BasicFlag$FloatFlag",
+            "com.github.yin.flags.BasicFlag$DoubleFlag",
+            "com.github.yin.flags.BasicFlag$BigIntegerFlag",
+            "com.github.yin.flags.BasicFlag$BigDecimalFlag",
+            "com.github.yin.flags.BasicFlag$ConvertingFlag",
+            "com.github.yin.flags.Converters",
+            "com.github.yin.flags.ComputedFlag",
+            "com.github.yin.flags.ComputedFlag$Memo",
+            "com.github.yin.flags.RolloutFlag",
+            "com.github.yin.flags.Rollout",
+            "com.github.yin.flags.WeakFlag",
+            "com.github.yin.flags.annotations.ClassScanner",
+            "com.github.yin.flags.annotations.FlagDeclarationIndex",
+    };
+
+    /** Packages of collections reachable from the populated flag index, whose classes are private */
+    @VisibleForTesting
+    static final String[] INDEX_PACKAGES = {
+            "com.google.common.collect",
+    };
+
+    @Override
+    public void afterRegistration(AfterRegistrationAccess access) {
+        List<String> packages = packages();
+        if (packages.isEmpty()) {
+            return;
+        }
+        RuntimeClassInitialization.initializeAtBuildTime(INDEX_CLASSES);
+        RuntimeClassInitialization.initializeAtBuildTime(INDEX_PACKAGES);
+        RuntimeClassInitialization.initializeAtBuildTime(packages.toArray(new String[packages.size()]));
+    }
+
+    @Override
+    public void beforeAnalysis(BeforeAnalysisAccess access) {
+        List<String> packages = packages();
+        if (packages.isEmpty()) {
+            return;
+        }
+        // Reflections looks up package resources through the context class loader, which is not
+        // the image class loader while the builder runs features.
+        Thread thread = Thread.currentThread();
+        ClassLoader contextLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(FlagsFeature.class.getClassLoader());
+        try {
+            Flags.scan(packages);
+            // descriptions of scanned flags are read from field annotations when usage is printed
+            for (String pkg : packages) {
+                for (Class<?> clazz : new Reflections(pkg).getTypesAnnotatedWith(FlagDesc.class)) {
+                    RuntimeReflection.register(clazz.getDeclaredFields());
+                }
+            }
+        } finally {
+            thread.setContextClassLoader(contextLoader);
+        }
+    }
+
+    private static List<String> packages() {
+        String property = System.getProperty(PACKAGES_PROPERTY, "");
+        return ImmutableList.copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(property));
+    }
+}
@@ -0,0 +1,374 @@
+package com.github.yin.flags.shared;
+
+import com.github.yin.flags.BasicFlag;
+import com.github.yin.flags.Converters;
+import com.github.yin.flags.Flag;
+import com.github.yin.flags.FlagHistory;
+import com.github.yin.flags.FlagID;
+import com.github.yin.flags.FlagIndex;
+import com.github.yin.flags.FlagMetadata;
+import com.github.yin.flags.Flags;
+import com.github.yin.flags.WeakFlag;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Shares flag values among JVMs running on the same host through a memory-mapped file. A value
+ * published by any process is seen by all processes mapping the file, with no network or polling
+ * involved.
+ *
+ * The region has a fixed layout computed from the flags in a {@link FlagIndex}, ordered by
+ * {@link FlagID}, so all processes must map it with the same set of flags. Boolean, integer and
+ * floating-point flags occupy 8-byte slots read with a plain memory load. Other flags are stored
+ * as strings in fixed-size slots guarded by a sequence lock, so readers never see a partially
+ * written value. Flags other than {@link BasicFlag.ConvertibleFlag}'s are not shared.
+ *
+ * <pre>
+ * SharedFlagRegion region = SharedFlagRegion.open(Paths.get("/dev/shm/app.flags"), index);
+ * Flag&lt;Integer&gt; threads = region.flag(Worker.threads);
+ * threads.parse("16");    // seen by every worker on the host
+ * </pre>
+ *
+ * Writers in different processes are serialized by file locks. A JVM should map a file once.
+ * A reader gives up with an {@link IllegalStateException} when a string slot stays inconsistent,
+ * e.g. because a writer died while publishing or the file was corrupted. The next value published
+ * to the slot makes it consistent again.
+ *
+ * @author yin
+ */
+public class SharedFlagRegion implements Closeable {
+    static final int MAGIC = 0x4a464c47;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    public static final int DEFAULT_STRING_CAPACITY = 256;
+
+    static final int MAX_READ_ATTEMPTS = 1000;
+
+    /**
+     * Orders accesses to the mapped file. Writers store to it after each step of publishing a
+     * value, readers load it between reading the sequence and the value. The Java memory model
+     * does not cover memory-mapped buffers, the ordering relies on HotSpot emitting memory
+     * barriers for volatile accesses. {@code VarHandle} fences would state it directly, but the
+     * library targets Java 8. Readers only load the field, so it is not contended.
+     */
+    private volatile int barrier;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int stringCapacity;
+    private final ImmutableMap<FlagID, SharedFlag<?>> slots;
+    private final Map<Flag<?>, SharedFlag<?>> slotsByFlag = new IdentityHashMap<>();
+
+    enum Kind {BOOLEAN, INTEGER, LONG, FLOAT, DOUBLE, STRING}
+
+    /**
+     * Maps a region with string slots of {@link #DEFAULT_STRING_CAPACITY} bytes.
+     */
+    public static SharedFlagRegion open(@Nonnull Path file, @Nonnull FlagIndex<FlagMetadata> flags) throws IOException {
+        return open(file, flags, DEFAULT_STRING_CAPACITY);
+    }
+
+    /**
+     * Maps a region file, creating it and storing current flag values if it does not exist.
+     * @param stringCapacity maximum length of string values in UTF-8 bytes
+     * @throws IOException if the file exists and was created for a different set of flags
+     */
+    public static SharedFlagRegion open(@Nonnull Path file, @Nonnull FlagIndex<FlagMetadata> flags,
+                                        int stringCapacity) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            return new SharedFlagRegion(channel, flags, stringCapacity);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private SharedFlagRegion(FileChannel channel, FlagIndex<FlagMetadata> flags, int stringCapacity) throws IOException {
+        this.channel = channel;
+        this.stringCapacity = stringCapacity;
+        ImmutableMap.Builder<FlagID, SharedFlag<?>> builder = ImmutableMap.builder();
+        int offset = HEADER_SIZE;
+        long layoutHash = 0xcbf29ce484222325L;
+        int stringSlotSize = align(8 + stringCapacity);
+        for (FlagMetadata meta : flags.byFQN().values()) {
+            Flag<?> flag = WeakFlag.unwrap(meta.flag());
+            Kind kind = kind(flag);
+            if (kind == null) {
+                continue;
+            }
+            builder.put(meta.flagID(), new SharedFlag<>(meta.flagID(), kind, offset, (BasicFlag.ConvertibleFlag<?>) flag));
+            offset += kind == Kind.STRING ? stringSlotSize : 8;
+            layoutHash = hash(layoutHash, meta.flagID().fqn() + ':' + kind);
+        }
+        this.slots = builder.build();
+        for (SharedFlag<?> slot : slots.values()) {
+            slotsByFlag.put(slot.source, slot);
+        }
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, offset);
+
+        FileLock lock = channel.lock();
+        try {
+            if (buffer.getInt(0) == 0) {
+                for (SharedFlag<?> slot : slots.values()) {
+                    slot.store(slot.source.get());
+                }
+                buffer.putInt(8, slots.size());
+                buffer.putInt(12, stringCapacity);
+                buffer.putLong(16, layoutHash);
+                buffer.putInt(4, VERSION);
+                storeFence();
+                buffer.putInt(0, MAGIC);
+                buffer.force();
+            } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a flag region file");
+            } else if (buffer.getInt(8) != slots.size() || buffer.getInt(12) != stringCapacity
+                    || buffer.getLong(16) != layoutHash) {
+                throw new IOException("Flag region was created for a different set of flags");
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Returns a view of a shared flag, which reads and publishes values through this region.
+     * @throws IllegalArgumentException if the flag is not shared in this region
+     */
+    @SuppressWarnings("unchecked")
+    public <T> SharedFlag<T> flag(@Nonnull Flag<T> flag) {
+        SharedFlag<?> slot = slotsByFlag.get(flag);
+        if (slot == null) {
+            throw new IllegalArgumentException("Flag is not shared in this region: " + flag);
+        }
+        return (SharedFlag<T>) slot;
+    }
+
+    /**
+     * Returns a view of a shared flag by its ID.
+     * @throws IllegalArgumentException if the flag is not shared in this region
+     */
+    public SharedFlag<?> flag(@Nonnull FlagID flagID) {
+        SharedFlag<?> slot = slots.get(flagID);
+        if (slot == null) {
+            throw new IllegalArgumentException("Flag is not shared in this region: " + flagID.fqn());
+        }
+        return slot;
+    }
+
+    /**
+     * Parses, validates and publishes a value to all processes mapping this region.
+     */
+    public void publish(@Nonnull FlagID flagID, @Nonnull String value) {
+        flag(flagID).parse(value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Flag backed by a slot in a {@link SharedFlagRegion}. Validators are shared with the
+     * original flag.
+     */
+    public final class SharedFlag<T> implements Flag<T> {
+        private final FlagID flagID;
+        private final Kind kind;
+        private final int offset;
+        private final BasicFlag.ConvertibleFlag<T> source;
+
+        private SharedFlag(FlagID flagID, Kind kind, int offset, BasicFlag.ConvertibleFlag<T> source) {
+            this.flagID = flagID;
+            this.kind = kind;
+            this.offset = offset;
+            this.source = source;
+        }
+
+        public FlagID flagID() {
+            return flagID;
+        }
+
+        @Override
+        public Flag<T> validator(Validator<T> validator) {
+            source.validator(validator);
+            return this;
+        }
+
+        /**
+         * Converts and validates a value using the original flag and publishes it.
+         */
+        @Override
+        public void parse(String value) {
+            T converted = source.convert(value);
+            source.validate(converted);
+            synchronized (SharedFlagRegion.this) {
+                try {
+                    FileLock lock = channel.lock(offset, 8, false);
+                    try {
+                        // writers hold the lock, an odd sequence is left by a writer which died
+                        T previous = kind != Kind.STRING || (buffer.getInt(offset) & 1) == 0 ? get() : null;
+                        store(converted);
+                        FlagHistory.global().record(flagID, previous, converted);
+                    } finally {
+                        lock.release();
+                    }
+                } catch (IOException e) {
+                    throw new Flags.ParseException("Cannot publish flag " + flagID.fqn(), e);
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get() {
+            switch (kind) {
+                case BOOLEAN:
+                    return (T) Boolean.valueOf(getAsLong() != 0);
+                case INTEGER:
+                    return (T) Integer.valueOf((int) getAsLong());
+                case LONG:
+                    return (T) Long.valueOf(getAsLong());
+                case FLOAT:
+                    return (T) Float.valueOf(Float.intBitsToFloat((int) getAsLong()));
+                case DOUBLE:
+                    return (T) Double.valueOf(getAsDouble());
+                default:
+                    return source.convert(readString());
+            }
+        }
+
+        /**
+         * Returns raw slot value of a boolean, integer or long flag.
+         */
+        public long getAsLong() {
+            return buffer.getLong(offset);
+        }
+
+        /**
+         * Returns raw slot value of a double flag.
+         */
+        public double getAsDouble() {
+            return buffer.getDouble(offset);
+        }
+
+        private void store(Object value) {
+            switch (kind) {
+                case BOOLEAN:
+                    buffer.putLong(offset, (Boolean) value ? 1 : 0);
+                    break;
+                case INTEGER:
+                    buffer.putLong(offset, (Integer) value);
+                    break;
+                case LONG:
+                    buffer.putLong(offset, (Long) value);
+                    break;
+                case FLOAT:
+                    buffer.putLong(offset, Float.floatToRawIntBits((Float) value));
+                    break;
+                case DOUBLE:
+                    buffer.putDouble(offset, (Double) value);
+                    break;
+                default:
+                    writeString(Converters.format(value));
+            }
+        }
+
+        private void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > stringCapacity) {
+                throw new Flags.ParseException("Value of flag " + flagID.fqn() + " exceeds " + stringCapacity + " bytes");
+            }
+            // the sequence stays odd if a writer died while publishing, start from it anyway
+            int sequence = buffer.getInt(offset) | 1;
+            buffer.putInt(offset, sequence);
+            storeFence();
+            buffer.putInt(offset + 4, bytes.length);
+            for (int i = 0; i < bytes.length; i++) {
+                buffer.put(offset + 8 + i, bytes[i]);
+            }
+            storeFence();
+            buffer.putInt(offset, sequence + 1);
+        }
+
+        private String readString() {
+            byte[] bytes = new byte[0];
+            for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+                int sequence = buffer.getInt(offset);
+                loadFence();
+                if ((sequence & 1) == 0) {
+                    int length = buffer.getInt(offset + 4);
+                    boolean valid = length >= 0 && length <= stringCapacity;
+                    if (valid) {
+                        if (bytes.length != length) {
+                            bytes = new byte[length];
+                        }
+                        for (int i = 0; i < length; i++) {
+                            bytes[i] = buffer.get(offset + 8 + i);
+                        }
+                    }
+                    loadFence();
+                    if (buffer.getInt(offset) == sequence) {
+                        if (!valid) {
+                            throw new IllegalStateException("Flag " + flagID.fqn() + " has invalid length " + length
+                                    + " in shared region");
+                        }
+                        return new String(bytes, StandardCharsets.UTF_8);
+                    }
+                }
+                Thread.yield();
+            }
+            throw new IllegalStateException("Flag " + flagID.fqn() + " is being written in shared region for too long,"
+                    + " was the writer terminated?");
+        }
+    }
+
+    private static Kind kind(Flag<?> flag) {
+        if (flag instanceof BasicFlag.BooleanFlag) {
+            return Kind.BOOLEAN;
+        } else if (flag instanceof BasicFlag.IntegerFlag) {
+            return Kind.INTEGER;
+        } else if (flag instanceof BasicFlag.LongFlag) {
+            return Kind.LONG;
+        } else if (flag instanceof BasicFlag.FloatFlag) {
+            return Kind.FLOAT;
+        } else if (flag instanceof BasicFlag.DoubleFlag) {
+            return Kind.DOUBLE;
+        } else if (flag instanceof BasicFlag.ConvertibleFlag) {
+            return Kind.STRING;
+        }
+        return null;
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private void storeFence() {
+        barrier = 0;
+    }
+
+    private void loadFence() {
+        int ignored = barrier;
+    }
+}
@@ -0,0 +1,178 @@
+package com.github.yin.flags;
+
+import com.github.yin.flags.analysis.UsageExporter;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ClassLoaderRegistrationTest {
+    private static final String PACKAGE = "com.example.plugin";
+    private static final String CLASS_NAME = PACKAGE + ".PluginFlags";
+    private static final String FQN = CLASS_NAME + ".pluginThreads";
+    private static final String FQN_MODE = CLASS_NAME + ".pluginMode";
+    private static final List<String> PACKAGES = Collections.singletonList(PACKAGE);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private URL classes;
+
+    @Before
+    public void compilePlugin() throws IOException {
+        Path sources = folder.newFolder("src").toPath();
+        Path output = folder.newFolder("classes").toPath();
+        Path source = sources.resolve("PluginFlags.java");
+        Files.write(source, ("package " + PACKAGE + ";\n"
+                + "import com.github.yin.flags.*;\n"
+                + "import com.github.yin.flags.annotations.FlagDesc;\n"
+                + "@FlagDesc(\"Plugin\")\n"
+                + "public class PluginFlags {\n"
+                + "    @FlagDesc(\"Plugin worker threads\")\n"
+                + "    static final Flag<Integer> pluginThreads = Flags.create(2).validator((Integer v) -> {\n"
+                + "        if (v < 1) throw new Flags.ParseException(\"positive\");\n"
+                + "    });\n"
+                + "    public enum Mode { FAST, SAFE }\n"
+                + "    static final Flag<Mode> pluginMode = Flags.create(Mode.FAST);\n"
+                + "    public static int threads() { return pluginThreads.get(); }\n"
+                + "}\n").getBytes(StandardCharsets.UTF_8));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, "-d", output.toString(),
+                "-cp", System.getProperty("java.class.path"), source.toString()));
+        classes = output.toUri().toURL();
+    }
+
+    @Test
+    public void registersOnlyLoaderResources() throws Exception {
+        URLClassLoader loader = new URLClassLoader(new URL[]{classes}, getClass().getClassLoader());
+        Flags.register(loader, PACKAGES);
+        try {
+            FlagMetadata meta = (FlagMetadata) Flags.flagMetadata().byFQN().get(FQN);
+            assertNotNull(meta);
+            assertTrue(meta.flag() instanceof WeakFlag);
+            assertEquals("Plugin", Flags.classMetadata().classes().get(CLASS_NAME).desc());
+
+            Flags.parse(ImmutableMap.of("pluginThreads", "7"), Collections.emptyList());
+            assertEquals(7, loader.loadClass(CLASS_NAME).getMethod("threads").invoke(null));
+            assertEquals(Integer.valueOf(7), meta.flag().get());
+
+            // Registering again does not scan the package twice
+            Flags.register(loader, PACKAGES);
+            assertEquals(1, Flags.flagMetadata().byName().get("pluginThreads").size());
+        } finally {
+            Flags.unregister(loader);
+        }
+        assertFalse(Flags.flagMetadata().byFQN().containsKey(FQN));
+        assertFalse(Flags.classMetadata().classes().containsKey(CLASS_NAME));
+    }
+
+    @Test
+    public void ignoresParentResources() throws Exception {
+        URLClassLoader parent = new URLClassLoader(new URL[]{classes}, getClass().getClassLoader());
+        URLClassLoader child = new URLClassLoader(new URL[0], parent);
+        Flags.register(child, PACKAGES);
+        assertFalse(Flags.flagMetadata().byFQN().containsKey(FQN));
+        Flags.unregister(child);
+    }
+
+    @Test
+    public void keepsClassesRegisteredByOtherLoader() throws Exception {
+        URLClassLoader first = new URLClassLoader(new URL[]{classes}, getClass().getClassLoader());
+        URLClassLoader second = new URLClassLoader(new URL[]{classes}, getClass().getClassLoader());
+        Flags.register(first, PACKAGES);
+        Flags.register(second, PACKAGES);
+        try {
+            Flags.unregister(first);
+            assertTrue(Flags.flagMetadata().byFQN().containsKey(FQN));
+            assertEquals("Plugin", Flags.classMetadata().classes().get(CLASS_NAME).desc());
+        } finally {
+            Flags.unregister(second);
+        }
+        assertFalse(Flags.classMetadata().classes().containsKey(CLASS_NAME));
+    }
+
+    @Test
+    public void removesFlagsOfCollectedLoader() throws Exception {
+        register();
+        assertTrue(Flags.flagMetadata().byFQN().containsKey(FQN));
+        for (int i = 0; i < 50 && Flags.flagMetadata().byFQN().containsKey(FQN); i++) {
+            System.gc();
+            Thread.sleep(20);
+            Flags.scan(Collections.emptyList());
+        }
+        assertFalse("flags of a collected loader should be removed", Flags.flagMetadata().byFQN().containsKey(FQN));
+        assertFalse(Flags.classMetadata().classes().containsKey(CLASS_NAME));
+    }
+
+    @Test
+    public void removesFlagsOfCollectedLoaderOnLookup() throws Exception {
+        WeakReference<ClassLoader> loader = registerAndSetMode();
+        FlagChange change = FlagHistory.global().recent(1).get(0);
+        assertEquals(FQN_MODE, change.flagID().fqn());
+        // plugin enums are recorded as strings, holding them would keep the loader reachable
+        assertEquals("SAFE", change.newValue());
+        assertEquals("FAST", change.oldValue());
+        for (int i = 0; i < 50 && Flags.flagMetadata().byFQN().containsKey(FQN); i++) {
+            System.gc();
+            Thread.sleep(20);
+            Flags.exportUsage(new StringWriter(), UsageExporter.Format.TEXT, PACKAGE);
+        }
+        assertNull("history should not keep the loader reachable", loader.get());
+        assertFalse("flags of a collected loader should be removed", Flags.flagMetadata().byFQN().containsKey(FQN));
+    }
+
+    @Test
+    public void parsersSkipUnloadedFlags() throws Exception {
+        FlagIndex<FlagMetadata> index = new FlagIndex<>();
+        Flag<Integer> live = Flags.create(1);
+        FlagMetadata liveMeta = FlagMetadata.create("com.example.Live", "threads", "", live);
+        FlagMetadata unloaded = FlagMetadata.create("com.example.Unloaded", "threads", "",
+                new WeakFlag<>(FlagID.create("com.example.Unloaded", "threads"), Flags.create(1)));
+        index.add(liveMeta.flagID(), liveMeta);
+        index.add(unloaded.flagID(), unloaded);
+        for (int i = 0; i < 50 && !WeakFlag.isCleared(unloaded.flag()); i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertTrue(WeakFlag.isCleared(unloaded.flag()));
+
+        new MapParser(index).parse(ImmutableMap.of("threads", "2"));
+        assertEquals(Integer.valueOf(2), live.get());
+        new GflagsParser(index).parse(new String[]{"--threads=3"});
+        assertEquals(Integer.valueOf(3), live.get());
+        ParseResult result = ParsePlan.compile(index).parse(new String[]{"--threads=4"});
+        assertFalse(result.errors().toString(), result.hasErrors());
+        assertEquals(Integer.valueOf(4), result.get(live));
+    }
+
+    private WeakReference<ClassLoader> registerAndSetMode() throws Exception {
+        URLClassLoader loader = new URLClassLoader(new URL[]{classes}, getClass().getClassLoader());
+        Flags.register(loader, PACKAGES);
+        Flags.parse(ImmutableMap.of("pluginMode", "SAFE"), Collections.emptyList());
+        assertEquals("SAFE", String.valueOf(((FlagMetadata) Flags.flagMetadata().byFQN().get(FQN_MODE)).flag().get()));
+        return new WeakReference<>(loader);
+    }
+
+    private void register() throws Exception {
+        URLClassLoader loader = new URLClassLoader(new URL[]{classes}, getClass().getClassLoader());
+        Flags.register(loader, PACKAGES);
+        assertEquals(2, loader.loadClass(CLASS_NAME).getMethod("threads").invoke(null));
+    }
+}
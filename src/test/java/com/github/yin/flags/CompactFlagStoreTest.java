@@ -0,0 +1,105 @@
+package com.github.yin.flags;
+
+import com.github.yin.flags.analysis.UsagePrinter;
+import com.github.yin.flags.annotations.ClassScanner;
+import com.github.yin.flags.testclasses.TestFlagDesc;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class CompactFlagStoreTest {
+    private Flag<Integer> threads;
+    private Flag<String> host;
+    private Flag<Boolean> verbose;
+    private FlagIndex<FlagMetadata> index;
+    private CompactFlagStore store;
+
+    @Before
+    public void setup() {
+        threads = Flags.create(4);
+        host = Flags.create("localhost");
+        verbose = Flags.create(false);
+        index = new FlagIndex<>();
+        add(index, "com.example.Server", "threads", "worker threads", threads);
+        add(index, "com.example.Server", "host", "bind address", host);
+        add(index, "com.example.Client", "verbose", "log requests – verbosely", verbose);
+        ClassMetadataIndex classes = new ClassMetadataIndex();
+        classes.classes().put("com.example.Server", ClassMetadata.create("com.example.Server", "HTTP server"));
+        store = CompactFlagStore.from(index, classes);
+    }
+
+    private static void add(FlagIndex<FlagMetadata> index, String className, String name, String desc, Flag<?> flag) {
+        FlagMetadata meta = FlagMetadata.create(className, name, desc, flag);
+        index.add(meta.flagID(), meta);
+    }
+
+    @Test
+    public void idsFollowClassAndFlagName() {
+        assertEquals(3, store.size());
+        assertEquals(2, store.classCount());
+        assertEquals("com.example.Client.verbose", store.fqn(0));
+        assertEquals("com.example.Server.host", store.fqn(1));
+        assertEquals("com.example.Server.threads", store.fqn(2));
+        assertEquals(1, store.firstFlag(1));
+        assertEquals(3, store.endFlag(1));
+        assertTrue(store.compare(1, 2) < 0);
+        assertSame(host, store.flag(1));
+        assertEquals(FlagID.create("com.example.Server", "threads"), store.flagID(2));
+    }
+
+    @Test
+    public void lookup() {
+        assertEquals(2, store.id("com.example.Server", "threads"));
+        assertEquals(-1, store.id("com.example.Server", "verbose"));
+        assertEquals(-1, store.id("com.example.Missing", "threads"));
+        assertArrayEquals(new int[]{0}, store.ids("verbose"));
+        assertArrayEquals(new int[0], store.ids("missing"));
+    }
+
+    @Test
+    public void descriptions() {
+        assertEquals("log requests – verbosely", store.description(0));
+        assertEquals("worker threads", store.description(2));
+        assertEquals("", store.classDescription(0));
+        assertEquals("HTTP server", store.classDescription(1));
+    }
+
+    @Test
+    public void descriptionsOfScannedFlagsAreReadLazily() {
+        FlagIndex<FlagMetadata> scanned = new FlagIndex<>();
+        ClassMetadataIndex scannedClasses = new ClassMetadataIndex();
+        new ClassScanner().scanClass(TestFlagDesc.class, scanned, scannedClasses);
+        FlagMetadata dummy = scanned.byFQN().get(TestFlagDesc.class.getCanonicalName() + ".dummy");
+        assertNull(dummy.storedDesc());
+        assertSame(TestFlagDesc.class, dummy.declaringClass());
+
+        CompactFlagStore scannedStore = CompactFlagStore.from(scanned, scannedClasses);
+        int id = scannedStore.id(TestFlagDesc.class.getCanonicalName(), "dummy");
+        assertEquals("A field #flagDocumentation", scannedStore.description(id));
+        int other = scannedStore.id(TestFlagDesc.class.getCanonicalName(), "withValidator");
+        assertEquals("", scannedStore.description(other));
+    }
+
+    @Test
+    public void sharesFlagIDsWithIndex() {
+        assertSame(index.byFQN().get("com.example.Server.threads").flagID(), store.flagID(2));
+        assertEquals(index.version(), store.version());
+        add(index, "com.example.Server", "port", "listen port", Flags.create(80));
+        assertNotEquals(index.version(), store.version());
+    }
+
+    @Test
+    public void printUsage() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new UsagePrinter().printUsage(store, new PrintStream(out, true, "UTF-8"));
+        String usage = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals("com.example.Client:\n\tverbose\tlog requests – verbosely\n\n"
+                + "com.example.Server:\nHTTP server\n\n\thost\tbind address\n\tthreads\tworker threads\n\n",
+                usage.replace(System.lineSeparator(), "\n"));
+    }
+}
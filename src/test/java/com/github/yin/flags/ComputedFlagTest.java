@@ -0,0 +1,63 @@
+package com.github.yin.flags;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ComputedFlagTest {
+    @Test
+    public void get_memoizesUntilInputChanges() throws Exception {
+        Flag<Integer> threads = Flags.create(4);
+        AtomicInteger computations = new AtomicInteger();
+        Flag<Integer> poolSize = Flags.computed(() -> {
+            computations.incrementAndGet();
+            return threads.get() * 4;
+        }, threads);
+
+        assertEquals(Integer.valueOf(16), poolSize.get());
+        assertEquals(Integer.valueOf(16), poolSize.get());
+        assertEquals(1, computations.get());
+
+        threads.parse("8");
+        assertEquals(Integer.valueOf(32), poolSize.get());
+        assertEquals(2, computations.get());
+    }
+
+    @Test
+    public void get_chainedInvalidation() throws Exception {
+        Flag<Long> maxRecordSize = Flags.create(1024L);
+        Flag<Long> bufferBytes = Flags.computed(() -> maxRecordSize.get() * 2, maxRecordSize);
+        Flag<Long> bufferKiB = Flags.computed(() -> bufferBytes.get() / 1024, bufferBytes);
+
+        assertEquals(Long.valueOf(2), bufferKiB.get());
+        maxRecordSize.parse("4096");
+        assertEquals(Long.valueOf(8), bufferKiB.get());
+    }
+
+    @Test
+    public void dependsOn_rejectsCycles() throws Exception {
+        Flag<Integer> base = Flags.create(1);
+        ComputedFlag<Integer> a = Flags.computed(() -> base.get() + 1, base);
+        ComputedFlag<Integer> b = Flags.computed(() -> a.get() + 1, a);
+        try {
+            a.dependsOn(b);
+            fail("Should have thrown IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // success
+        }
+        try {
+            a.dependsOn(a);
+            fail("Should have thrown IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // success
+        }
+        assertEquals(Integer.valueOf(3), b.get());
+    }
+
+    @Test(expected = Flags.ParseException.class)
+    public void parse_fails() throws Exception {
+        Flags.computed(() -> 1).parse("2");
+    }
+}
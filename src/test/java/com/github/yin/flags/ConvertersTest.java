@@ -0,0 +1,111 @@
+package com.github.yin.flags;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConvertersTest {
+    enum Mode {FAST, SLOW}
+
+    @Test
+    public void parseDuration() throws Exception {
+        assertEquals(Duration.ofMillis(250), Converters.parseDuration("250ms"));
+        assertEquals(Duration.ofMinutes(5), Converters.parseDuration("5m"));
+        assertEquals(Duration.ofMinutes(90), Converters.parseDuration("1h30m"));
+        assertEquals(Duration.ofMillis(1500), Converters.parseDuration("1.5s"));
+        assertEquals(Duration.ofNanos(10), Converters.parseDuration("10ns"));
+        assertEquals(Duration.ofDays(-2), Converters.parseDuration("-2d"));
+        assertEquals(Duration.ZERO, Converters.parseDuration("0"));
+        assertEquals(Duration.ofMinutes(5), Converters.parseDuration("PT5M"));
+        for (String invalid : new String[]{"", "5", "ms", "5x", "5mm", "1.5", ".", "5.s",
+                "99999999999999999999ms", "9223372036854775807d", "PT5X"}) {
+            try {
+                Converters.parseDuration(invalid);
+                fail("Should have thrown ParseException for " + invalid);
+            } catch (Flags.ParseException ex) {
+                // success
+            }
+        }
+    }
+
+    @Test
+    public void parseByteSize() throws Exception {
+        assertEquals(512L * 1024 * 1024, Converters.parseByteSize("512MiB"));
+        assertEquals(1500000000L, Converters.parseByteSize("1.5GB"));
+        assertEquals(64 * 1024, Converters.parseByteSize("64k"));
+        assertEquals(100, Converters.parseByteSize("100"));
+        assertEquals(100, Converters.parseByteSize("100B"));
+        assertEquals(2048, Converters.parseByteSize("2 KiB"));
+        for (String invalid : new String[]{"", "MiB", "5XB", "5Mib", "12 parsecs", ".", ".k",
+                "99999999999999999999", "9000PiB"}) {
+            try {
+                Converters.parseByteSize(invalid);
+                fail("Should have thrown ParseException for " + invalid);
+            } catch (Flags.ParseException ex) {
+                // success
+            }
+        }
+    }
+
+    @Test
+    public void parseSocketAddress() throws Exception {
+        InetSocketAddress address = Converters.parseSocketAddress("127.0.0.1:8080");
+        assertEquals("127.0.0.1", address.getHostString());
+        assertEquals(8080, address.getPort());
+        assertEquals(443, Converters.parseSocketAddress("[::1]:443").getPort());
+        assertEquals(9000, Converters.parseSocketAddress(":9000").getPort());
+        assertEquals(address, Converters.parseSocketAddress(address.toString()));
+        // toString() of IPv6 addresses before and since JDK 14
+        assertEquals(8080, Converters.parseSocketAddress("/0:0:0:0:0:0:0:1:8080").getPort());
+        assertEquals("0:0:0:0:0:0:0:1",
+                Converters.parseSocketAddress("/[0:0:0:0:0:0:0:1]:8080").getHostString());
+        InetSocketAddress ipv6 = new InetSocketAddress("::1", 443);
+        assertEquals("[0:0:0:0:0:0:0:1]:443", Converters.format(ipv6));
+        assertEquals(ipv6, Converters.parseSocketAddress(Converters.format(ipv6)));
+        try {
+            Converters.parseSocketAddress("localhost:99999");
+            fail("Should have thrown ParseException");
+        } catch (Flags.ParseException ex) {
+            // success
+        }
+    }
+
+    @Test
+    public void lookup_enum() throws Exception {
+        Converter<Mode> converter = Converters.lookup(Mode.class);
+        assertNotSame("enum converters are not cached", converter, Converters.lookup(Mode.class));
+        assertEquals(Mode.SLOW, converter.convert("SLOW"));
+        assertEquals(Mode.FAST, converter.convert("fast"));
+    }
+
+    @Test
+    public void create_convertingFlags() throws Exception {
+        Flag<Duration> timeout = Flags.create(Duration.ofSeconds(1));
+        timeout.parse("250ms");
+        assertEquals(250, timeout.get().toMillis());
+
+        Flag<Mode> mode = Flags.create(Mode.FAST);
+        mode.parse("slow");
+        assertEquals(Mode.SLOW, mode.get());
+
+        Flag<Long> buffer = Flags.createByteSize(0);
+        buffer.parse("4MiB");
+        assertEquals(Long.valueOf(4 << 20), buffer.get());
+
+        Flag<TimeUnit> unit = Flags.create(TimeUnit.class, TimeUnit.SECONDS);
+        unit.parse("milliseconds");
+        assertEquals(TimeUnit.MILLISECONDS, unit.get());
+
+        assertEquals(Paths.get("/tmp"), Flags.create(Paths.get("/")).get().getRoot().resolve("tmp"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lookup_unknownType() throws Exception {
+        Converters.lookup(Object.class);
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.yin.flags;
+
+import com.github.yin.flags.testclasses.TestFlagDesc;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class FlagHistoryTest {
+    private static final FlagID FLAG_ID = FlagID.create("com.example.History", "threads");
+
+    @Test
+    public void keepsMostRecentChanges() throws Exception {
+        FlagHistory history = new FlagHistory(3);
+        assertEquals(4, history.capacity());
+        for (int i = 0; i < 6; i++) {
+            history.record(FLAG_ID, i, i + 1, FlagChange.Source.FILE);
+        }
+        List<FlagChange> recent = history.recent(10);
+        assertEquals(4, recent.size());
+        assertEquals(5L, recent.get(0).sequence());
+        assertEquals(6, recent.get(0).newValue());
+        assertEquals(5, recent.get(0).oldValue());
+        assertEquals(2L, recent.get(3).sequence());
+        assertEquals(FlagChange.Source.FILE, recent.get(0).source());
+        assertEquals(6L, history.count());
+        assertEquals(2, history.recent(2).size());
+
+        StringBuilder dump = new StringBuilder();
+        history.dump(dump, 1);
+        assertTrue(dump.toString(), dump.toString().endsWith(" FILE com.example.History.threads: 5 -> 6\n"));
+    }
+
+    @Test
+    public void recordsParsedValuesWithSource() {
+        Flags.parse(ImmutableMap.of("dummy", "from-map"),
+                Collections.singletonList(FlagsTest.TESTFLAGS_PACKAGE));
+        FlagID dummy = FlagID.create(TestFlagDesc.class.getCanonicalName(), "dummy");
+        FlagChange change = FlagHistory.global().recent(1, dummy).get(0);
+        assertEquals("from-map", change.newValue());
+        assertEquals(FlagChange.Source.MAP, change.source());
+
+        Flag<Integer> flag = Flags.create(1);
+        FlagMetadata.create("com.example.History", "api", "", flag);
+        flag.parse("2");
+        change = FlagHistory.global().recent(1, FlagID.create("com.example.History", "api")).get(0);
+        assertEquals(1, change.oldValue());
+        assertEquals(2, change.newValue());
+        assertEquals(FlagChange.Source.API, change.source());
+    }
+
+    @Test
+    public void concurrentWriters() throws Exception {
+        FlagHistory history = new FlagHistory(64);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < 4; w++) {
+                writers.add(executor.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        history.record(FLAG_ID, i, i + 1, FlagChange.Source.API);
+                        long previous = Long.MAX_VALUE;
+                        for (FlagChange change : history.recent(16)) {
+                            assertTrue(change.sequence() < previous);
+                            previous = change.sequence();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(40000L, history.count());
+        assertEquals(64, history.recent(100).size());
+        assertEquals(39999L, history.recent(1).get(0).sequence());
+    }
+
+    @Test
+    public void concurrentInjectsChainOldValues() throws Exception {
+        FlagID flagID = FlagID.create("com.example.History", "contended");
+        BasicFlag.IntegerFlag flag = new BasicFlag.IntegerFlag(0);
+        FlagMetadata.create(flagID.className(), flagID.flagName(), "", flag);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < 4; w++) {
+                int first = w * 200 + 1;
+                writers.add(executor.submit(() -> {
+                    for (int i = first; i < first + 200; i++) {
+                        flag.inject(i);
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Set<Object> oldValues = new HashSet<>();
+        Set<Object> newValues = new HashSet<>();
+        for (FlagChange change : FlagHistory.global().recent(800, flagID)) {
+            assertTrue("Old value recorded twice: " + change.oldValue(), oldValues.add(change.oldValue()));
+            newValues.add(change.newValue());
+        }
+        assertEquals(800, newValues.size());
+        newValues.add(0);
+        newValues.remove(flag.get());
+        assertEquals(newValues, oldValues);
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.yin.flags;
+
+import com.github.yin.flags.testclasses.TestFlagDesc;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class FlagIndexConcurrencyTest {
+    private static final int WRITERS = 8;
+    private static final int READERS = 4;
+    private static final int FLAGS_PER_WRITER = 500;
+
+    @Test
+    public void concurrentRegistrationAndLookup() throws Exception {
+        FlagIndex<FlagMetadata> index = new FlagIndex<>();
+        ClassMetadataIndex classes = new ClassMetadataIndex();
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                String className = "com.example.Module" + w;
+                writers.add(executor.submit((Callable<Void>) () -> {
+                    start.await();
+                    classes.classes().put(className, ClassMetadata.create(className, "module"));
+                    for (int i = 0; i < FLAGS_PER_WRITER; i++) {
+                        // Every writer registers the same names, so byName sees concurrent puts
+                        FlagMetadata meta = FlagMetadata.create(className, "flag" + i, "", Flags.create(i));
+                        index.add(meta.flagID(), meta);
+                    }
+                    return null;
+                }));
+            }
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < READERS; r++) {
+                readers.add(executor.submit((Callable<Void>) () -> {
+                    start.await();
+                    int seen = 0;
+                    while (writing.get()) {
+                        Map<String, FlagMetadata> byFQN = index.byFQN();
+                        assertTrue("flags are never removed", byFQN.size() >= seen);
+                        seen = byFQN.size();
+                        for (FlagMetadata meta : byFQN.values()) {
+                            assertTrue(index.byName().containsEntry(meta.flagID().flagName(), meta));
+                            break;
+                        }
+                        classes.classes().size();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(30, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            for (Future<?> reader : readers) {
+                reader.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(WRITERS * FLAGS_PER_WRITER, index.byFQN().size());
+        assertEquals(WRITERS * FLAGS_PER_WRITER, index.byName().size());
+        assertEquals(FLAGS_PER_WRITER, index.byName().keySet().size());
+        assertEquals(WRITERS, index.byClass().keySet().size());
+        assertEquals(WRITERS, index.byName().get("flag0").size());
+        assertEquals(WRITERS, classes.classes().size());
+    }
+
+    @Test
+    public void concurrentScanOfSamePackage() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(READERS);
+        try {
+            List<Callable<Void>> scans = Collections.nCopies(READERS * 4, () -> {
+                Flags.scan(Collections.singletonList(FlagsTest.TESTFLAGS_PACKAGE));
+                assertTrue("scan returns after flags are indexed",
+                        Flags.flagMetadata().byClass().containsKey(TestFlagDesc.class.getCanonicalName()));
+                return null;
+            });
+            for (Future<Void> scan : executor.invokeAll(scans)) {
+                scan.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
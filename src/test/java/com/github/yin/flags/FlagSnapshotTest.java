@@ -0,0 +1,148 @@
+package com.github.yin.flags;
+
+import com.github.yin.flags.annotations.ClassScanner;
+import com.github.yin.flags.testclasses.TestFlagDesc;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.*;
+
+public class FlagSnapshotTest {
+    private static final String CLASS_NAME = "com.example.Snapshot";
+
+    private FlagIndex<FlagMetadata> index;
+    private ClassMetadataIndex classes;
+    private Flag<Integer> threads;
+    private Flag<Long> limit;
+    private Flag<Double> ratio;
+    private Flag<Boolean> verbose;
+    private Flag<BigDecimal> price;
+    private Flag<String> name;
+
+    @Before
+    public void setup() {
+        threads = Flags.create(-3);
+        limit = Flags.create(Long.MAX_VALUE);
+        ratio = Flags.create(0.25);
+        verbose = Flags.create(true);
+        price = Flags.create(new BigDecimal("9.99"));
+        name = Flags.create("péter");
+        index = index(threads, limit, ratio, verbose, price, name);
+        classes = new ClassMetadataIndex();
+        classes.classes().put(CLASS_NAME, ClassMetadata.create(CLASS_NAME, "snapshot test"));
+    }
+
+    private static FlagIndex<FlagMetadata> index(Flag<?>... flags) {
+        String[] names = {"threads", "limit", "ratio", "verbose", "price", "name"};
+        FlagIndex<FlagMetadata> index = new FlagIndex<>();
+        for (int i = 0; i < flags.length; i++) {
+            FlagMetadata meta = FlagMetadata.create(CLASS_NAME, names[i], "desc of " + names[i], flags[i]);
+            index.add(meta.flagID(), meta);
+        }
+        return index;
+    }
+
+    private byte[] write(FlagSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.write(Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    private static FlagSnapshot read(byte[] bytes) throws IOException {
+        return FlagSnapshot.read(Channels.newChannel(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        byte[] bytes = write(FlagSnapshot.capture(index, classes));
+
+        Flag<Integer> threads2 = Flags.create(0);
+        Flag<Long> limit2 = Flags.create(0L);
+        Flag<Double> ratio2 = Flags.create(0.0);
+        Flag<Boolean> verbose2 = Flags.create(false);
+        Flag<BigDecimal> price2 = Flags.create(BigDecimal.ZERO);
+        Flag<String> name2 = Flags.create("");
+        FlagIndex<FlagMetadata> target = index(threads2, limit2, ratio2, verbose2, price2, name2);
+        ClassMetadataIndex targetClasses = new ClassMetadataIndex();
+        read(bytes).restore(target, targetClasses, getClass().getClassLoader());
+
+        assertEquals(Integer.valueOf(-3), threads2.get());
+        assertEquals(Long.valueOf(Long.MAX_VALUE), limit2.get());
+        assertEquals(Double.valueOf(0.25), ratio2.get());
+        assertEquals(Boolean.TRUE, verbose2.get());
+        assertEquals(new BigDecimal("9.99"), price2.get());
+        assertEquals("péter", name2.get());
+        assertEquals("snapshot test", targetClasses.classes().get(CLASS_NAME).desc());
+    }
+
+    @Test
+    public void roundTrip_ipv6SocketAddress() throws Exception {
+        FlagIndex<FlagMetadata> source = new FlagIndex<>();
+        FlagMetadata meta = FlagMetadata.create(CLASS_NAME, "bind", "",
+                Flags.create(new InetSocketAddress(InetAddress.getByName("::1"), 8080)));
+        source.add(meta.flagID(), meta);
+        byte[] bytes = write(FlagSnapshot.capture(source, classes));
+
+        Flag<InetSocketAddress> bind = Flags.create(new InetSocketAddress(0));
+        FlagIndex<FlagMetadata> target = new FlagIndex<>();
+        FlagMetadata targetMeta = FlagMetadata.create(CLASS_NAME, "bind", "", bind);
+        target.add(targetMeta.flagID(), targetMeta);
+        read(bytes).restore(target, new ClassMetadataIndex(), getClass().getClassLoader());
+
+        assertEquals(InetAddress.getByName("::1"), bind.get().getAddress());
+        assertEquals(8080, bind.get().getPort());
+    }
+
+    @Test
+    public void roundTrip_skipsComputedFlags() throws Exception {
+        FlagIndex<FlagMetadata> source = index(threads);
+        FlagMetadata computed = FlagMetadata.create(CLASS_NAME, "workers", "", Flags.computed(() -> {
+            throw new IllegalStateException("computed flags are not captured");
+        }, threads));
+        source.add(computed.flagID(), computed);
+        byte[] bytes = write(FlagSnapshot.capture(source, classes));
+
+        Flag<Integer> threads2 = Flags.create(0);
+        ComputedFlag<Integer> workers2 = Flags.computed(() -> threads2.get() * 2, threads2);
+        FlagIndex<FlagMetadata> target = index(threads2);
+        FlagMetadata targetComputed = FlagMetadata.create(CLASS_NAME, "workers", "", workers2);
+        target.add(targetComputed.flagID(), targetComputed);
+        read(bytes).restore(target, new ClassMetadataIndex(), getClass().getClassLoader());
+
+        assertEquals(Integer.valueOf(-3), threads2.get());
+        assertEquals(Integer.valueOf(-6), workers2.get());
+    }
+
+    @Test
+    public void read_detectsCorruption() throws Exception {
+        byte[] bytes = write(FlagSnapshot.capture(index, classes));
+        bytes[bytes.length / 2] ^= 1;
+        try {
+            read(bytes);
+            fail("Should have thrown IOException");
+        } catch (IOException ex) {
+            // success
+        }
+    }
+
+    @Test
+    public void restore_scansClassesFromSnapshot() throws Exception {
+        FlagIndex<FlagMetadata> source = new FlagIndex<>();
+        ClassMetadataIndex sourceClasses = new ClassMetadataIndex();
+        new ClassScanner().scanClass(TestFlagDesc.class, source, sourceClasses);
+        byte[] bytes = write(FlagSnapshot.capture(source, sourceClasses));
+
+        FlagIndex<FlagMetadata> target = new FlagIndex<>();
+        read(bytes).restore(target, new ClassMetadataIndex(), getClass().getClassLoader());
+
+        assertEquals(source.byFQN().keySet(), target.byFQN().keySet());
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.yin.flags;
+
+import com.github.yin.flags.testclasses.OtherFlagDesc;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class KeyBindingsTest {
+    private static final String CLASS_NAME = "com.example.Bindings";
+
+    private Flag<String> input;
+    private Flag<Integer> threads;
+    private List<String> errors;
+    private KeyBindings bindings;
+
+    @Before
+    public void setup() {
+        input = Flags.create("default");
+        threads = Flags.create(1);
+        FlagIndex<FlagMetadata> index = new FlagIndex<>();
+        add(index, CLASS_NAME, "input", input);
+        add(index, CLASS_NAME, "threads", threads);
+        add(index, CLASS_NAME, "mode", Flags.create(""));
+        add(index, "com.example.Other", "mode", Flags.create(""));
+        errors = new ArrayList<>();
+        MapParser parser = new MapParser(index) {
+            @Override
+            protected void errorUnknownFlag(String flag) {
+                errors.add("unknown " + flag);
+            }
+
+            @Override
+            protected void errorAmbigousFlag(String flag, Collection<FlagMetadata> flagsByName) {
+                errors.add("ambiguous " + flag);
+            }
+        };
+        bindings = parser.compile(Arrays.asList("input", "threads", "mode", "missing", "input"));
+    }
+
+    private static void add(FlagIndex<FlagMetadata> index, String className, String name, Flag<?> flag) {
+        FlagMetadata meta = FlagMetadata.create(className, name, "", flag);
+        index.add(meta.flagID(), meta);
+    }
+
+    @Test
+    public void compile_reportsUnresolvedKeysOnce() {
+        assertEquals(Arrays.asList("input", "threads", "mode", "missing"), bindings.keys());
+        assertEquals(Arrays.asList("ambiguous mode", "unknown missing"), errors);
+        assertTrue(bindings.isBound("threads"));
+        assertFalse(bindings.isBound("mode"));
+        assertFalse(bindings.isBound("missing"));
+        assertFalse(bindings.isBound("other"));
+    }
+
+    @Test
+    public void apply_map() {
+        bindings.apply(ImmutableMap.of("threads", "4"));
+        assertEquals(Integer.valueOf(4), threads.get());
+        assertEquals("default", input.get());
+
+        bindings.apply(ImmutableMap.of("threads", "8", "input", "in", "mode", "ignored", "other", "unknown"));
+        assertEquals(Integer.valueOf(8), threads.get());
+        assertEquals("in", input.get());
+    }
+
+    @Test
+    public void apply_mapInKeyOrder() {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("input", "in");
+        values.put("threads", "4");
+        values.put("other", "unknown");
+        values.put("mode", "ignored");
+        bindings.apply(values);
+        assertEquals("in", input.get());
+        assertEquals(Integer.valueOf(4), threads.get());
+    }
+
+    @Test
+    public void apply_array() {
+        bindings.apply(new String[]{"in", null, "ignored", "ignored"});
+        assertEquals("in", input.get());
+        assertEquals(Integer.valueOf(1), threads.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void apply_arrayOfWrongLength() {
+        bindings.apply(new String[]{"in"});
+    }
+
+    @Test
+    public void bind() {
+        KeyBindings bound = Flags.bind(Collections.singletonList("otherLevel"),
+                Collections.singletonList(FlagsTest.TESTFLAGS_PACKAGE));
+        bound.apply(new String[]{"5"});
+        assertEquals(5, OtherFlagDesc.getLevel());
+    }
+}
@@ -0,0 +1,154 @@
+package com.github.yin.flags;
+
+import com.github.yin.flags.annotations.ClassScanner;
+import com.github.yin.flags.annotations.FlagDeclarationIndex;
+import com.github.yin.flags.annotations.FlagDeclarationProcessor;
+import com.github.yin.flags.testclasses.OtherFlagDesc;
+import com.github.yin.flags.testclasses.TestFlagDesc;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class LazyScannerTest {
+    private static final List<String> PACKAGES = Collections.singletonList(FlagsTest.TESTFLAGS_PACKAGE);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FlagDeclarationIndex declarations;
+    private FlagIndex<FlagMetadata> flags;
+    private ClassMetadataIndex classes;
+    private AtomicInteger fullScans;
+    private LazyScanner scanner;
+
+    @Before
+    public void setup() {
+        declarations = FlagDeclarationIndex.load(getClass().getClassLoader());
+        flags = new FlagIndex<>();
+        classes = new ClassMetadataIndex();
+        fullScans = new AtomicInteger();
+        scanner = new LazyScanner(declarations, PACKAGES, getClass().getClassLoader(), new ClassScanner(),
+                flags, classes, new HashSet<>(), () -> {
+                    fullScans.incrementAndGet();
+                    new ClassScanner().scanPackage(FlagsTest.TESTFLAGS_PACKAGE, flags, classes);
+                });
+    }
+
+    @Test
+    public void compilerRecordsDeclarations() {
+        assertEquals(Collections.singleton(TestFlagDesc.class.getName()), declarations.classes("dummy"));
+        assertEquals(Collections.singleton(OtherFlagDesc.class.getName()), declarations.classes("otherLevel"));
+        assertTrue(declarations.classes("level").isEmpty());
+        assertTrue(declarations.classes("notAFlag").isEmpty());
+    }
+
+    @Test
+    public void scansOnlyDeclaringClasses() {
+        new GflagsParser(flags, scanner).parse(new String[]{"--otherLevel=3"});
+        assertEquals(3, OtherFlagDesc.getLevel());
+        assertTrue(flags.byClass().containsKey(OtherFlagDesc.class.getCanonicalName()));
+        assertFalse(flags.byClass().containsKey(TestFlagDesc.class.getCanonicalName()));
+        assertEquals(0, fullScans.get());
+
+        new MapParser(flags, scanner).parse(Collections.singletonMap("dummy", "lazy"));
+        assertEquals("lazy", TestFlagDesc.getDummy());
+        assertEquals(0, fullScans.get());
+    }
+
+    @Test
+    public void scansAllBeforeReportingUnknownFlags() {
+        new GflagsParser(flags, scanner).parse(new String[]{"--unknown=1", "--nounknown"});
+        assertEquals(1, fullScans.get());
+        assertTrue(flags.byClass().containsKey(TestFlagDesc.class.getCanonicalName()));
+    }
+
+    @Test
+    public void ignoresClassesOutsidePackages() {
+        // a package name prefix is not a parent package
+        for (String pkg : new String[]{"org.example", "com.github.yin.flags.test"}) {
+            LazyScanner outside = new LazyScanner(declarations, Collections.singletonList(pkg),
+                    getClass().getClassLoader(), new ClassScanner(), flags, classes, new HashSet<>(), () -> { });
+            outside.resolve("dummy");
+            assertTrue(pkg, flags.byFQN().isEmpty());
+        }
+    }
+
+    @Test
+    public void parseLazilyMap() {
+        Flags.parseLazily(Collections.singletonMap("otherLevel", "6"), PACKAGES);
+        assertEquals(6, OtherFlagDesc.getLevel());
+    }
+
+    @Test
+    public void compilerIndexesTypesLikeClassScanner() throws Exception {
+        Path sources = folder.newFolder("src").toPath();
+        Path output = folder.newFolder("classes").toPath();
+        List<Path> files = Arrays.asList(
+                write(sources, "Settings", "@FlagDesc(\"Settings\") public interface Settings {"
+                        + " Flag<Integer> retries = Flags.create(3); }"),
+                write(sources, "Base", "@FlagDesc(\"Base\") public class Base { }"),
+                write(sources, "Derived", "public class Derived extends Base {"
+                        + " static final Flag<String> derived = Flags.create(\"\"); }"));
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        assertTrue(diagnostics.getDiagnostics().toString(), compile(output, files, diagnostics));
+
+        FlagDeclarationIndex index = FlagDeclarationIndex.load(
+                new URLClassLoader(new URL[]{output.toUri().toURL()}, null));
+        assertEquals(Collections.singleton("com.example.lazy.Settings"), index.classes("retries"));
+        assertEquals(Collections.singleton("com.example.lazy.Derived"), index.classes("derived"));
+    }
+
+    @Test
+    public void compilerRejectsInstanceFlags() throws Exception {
+        Path sources = folder.newFolder("src").toPath();
+        Path output = folder.newFolder("classes").toPath();
+        List<Path> files = Collections.singletonList(write(sources, "Instance",
+                "@FlagDesc(\"Instance\") public class Instance { final Flag<Integer> threads = Flags.create(1); }"));
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        assertFalse(compile(output, files, diagnostics));
+        assertTrue(diagnostics.getDiagnostics().toString(), diagnostics.getDiagnostics().stream().anyMatch(d ->
+                d.getMessage(null).contains("com.example.lazy.Instance.threads is not a static field")));
+    }
+
+    private static Path write(Path sources, String className, String body) throws IOException {
+        Path source = sources.resolve(className + ".java");
+        Files.write(source, ("package com.example.lazy;\n"
+                + "import com.github.yin.flags.*;\n"
+                + "import com.github.yin.flags.annotations.FlagDesc;\n"
+                + body + "\n").getBytes(StandardCharsets.UTF_8));
+        return source;
+    }
+
+    private static boolean compile(Path output, List<Path> files, DiagnosticCollector<JavaFileObject> diagnostics)
+            throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null)) {
+            List<String> options = Arrays.asList("-d", output.toString(), "-cp", System.getProperty("java.class.path"),
+                    "-processor", FlagDeclarationProcessor.class.getName());
+            Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromFiles(
+                    files.stream().map(Path::toFile).collect(Collectors.toList()));
+            return compiler.getTask(null, fileManager, diagnostics, options, null, units).call();
+        }
+    }
+}
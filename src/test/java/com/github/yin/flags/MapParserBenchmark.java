@@ -0,0 +1,96 @@
+package com.github.yin.flags;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Compares applying maps of flag values through {@link Flags#parse(Map, Iterable)} and
+ * {@link MapParser#parse(Map)}, which look up every key in the {@link FlagIndex}, and through
+ * {@link KeyBindings} compiled for 1000 keys once. Full maps set all 1000 flags, in the order of
+ * the bindings or in reverse, sparse maps 10 of them. Converting values and recording their
+ * history cost the same in every case, so each time is also printed minus the time of parsing the
+ * values straight into the flags. Not run by the build, start its {@code main()} on the test
+ * classpath.
+ */
+public class MapParserBenchmark {
+    private static final int FLAGS = 1000;
+    private static final int SPARSE = 10;
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 5000;
+
+    /** Consumes flag values read after each run, so the runs cannot be optimized away */
+    private static long sink;
+
+    public static void main(String[] args) {
+        FlagIndex<FlagMetadata> index = new FlagIndex<>();
+        @SuppressWarnings("unchecked")
+        Flag<Integer>[] flags = new Flag[FLAGS];
+        Map<String, String> values = new LinkedHashMap<>();
+        Map<String, String> reversed = new LinkedHashMap<>();
+        Map<String, String> sparse = new LinkedHashMap<>();
+        String[] array = new String[FLAGS];
+        for (int i = 0; i < FLAGS; i++) {
+            String name = "benchmarkFlag" + i;
+            flags[i] = Flags.create(0);
+            FlagMetadata meta = FlagMetadata.create("com.example.Class" + (i % 50), name, "", flags[i]);
+            index.add(meta.flagID(), meta);
+            // Flags.parse(Map, ...) resolves names in the global index
+            Flags.flagMetadata().add(meta.flagID(), meta);
+            values.put(name, Integer.toString(i));
+            array[i] = Integer.toString(i);
+            if (i % (FLAGS / SPARSE) == 0) {
+                sparse.put(name, Integer.toString(i));
+            }
+        }
+        for (int i = FLAGS - 1; i >= 0; i--) {
+            reversed.put("benchmarkFlag" + i, array[i]);
+        }
+        MapParser parser = new MapParser(index);
+        KeyBindings bindings = parser.compile(values.keySet());
+        Supplier<Integer> probe = flags[FLAGS - 1]::get;
+        Supplier<Integer> sparseProbe = flags[0]::get;
+
+        for (int round = 0; round < 5; round++) {
+            long floor = measure(() -> {
+                for (int i = 0; i < FLAGS; i++) {
+                    flags[i].parse(array[i]);
+                }
+            }, probe);
+            long flagsParse = measure(() -> Flags.parse(values, Collections.emptyList()), probe);
+            long parse = measure(() -> parser.parse(values), probe);
+            long map = measure(() -> bindings.apply(values), probe);
+            long reversedMap = measure(() -> bindings.apply(reversed), probe);
+            long positional = measure(() -> bindings.apply(array), probe);
+            System.out.printf("round %d, %d keys, ns/map (minus %,d ns parsing values): Flags.parse %,d (%,d), "
+                    + "MapParser.parse %,d (%,d), KeyBindings.apply(Map) %,d (%,d), "
+                    + "KeyBindings.apply(Map) reversed %,d (%,d), KeyBindings.apply(String[]) %,d (%,d)%n",
+                    round, FLAGS, floor, flagsParse, flagsParse - floor, parse, parse - floor, map, map - floor,
+                    reversedMap, reversedMap - floor, positional, positional - floor);
+            long sparseFlagsParse = measure(() -> Flags.parse(sparse, Collections.emptyList()), sparseProbe);
+            long sparseParse = measure(() -> parser.parse(sparse), sparseProbe);
+            long sparseMap = measure(() -> bindings.apply(sparse), sparseProbe);
+            System.out.printf("round %d, %d keys, ns/map: Flags.parse %,d, MapParser.parse %,d, "
+                    + "KeyBindings.apply(Map) %,d%n",
+                    round, SPARSE, sparseFlagsParse, sparseParse, sparseMap);
+        }
+        System.out.println("checksum " + sink);
+    }
+
+    private static long measure(Runnable task, Supplier<Integer> probe) {
+        long checksum = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            task.run();
+            checksum += probe.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            task.run();
+            checksum += probe.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += checksum;
+        return elapsed / ITERATIONS;
+    }
+}
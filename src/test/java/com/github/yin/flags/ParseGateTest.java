@@ -0,0 +1,248 @@
+package com.github.yin.flags;
+
+import com.github.yin.flags.testclasses.OtherFlagDesc;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ParseGateTest {
+    private static final List<String> PACKAGES = Collections.singletonList(FlagsTest.TESTFLAGS_PACKAGE);
+
+    private ExecutorService executor;
+    private BasicFlag.IntegerFlag flag;
+    private BasicFlag.IntegerFlag other;
+    private ParsePlan plan;
+    private CountDownLatch release;
+
+    @Before
+    public void setup() {
+        executor = Executors.newSingleThreadExecutor();
+        flag = new BasicFlag.IntegerFlag(1);
+        other = new BasicFlag.IntegerFlag(10);
+        FlagIndex<FlagMetadata> index = new FlagIndex<>();
+        for (FlagMetadata meta : new FlagMetadata[]{
+                FlagMetadata.create("com.example.Gate", "gated", "", flag),
+                FlagMetadata.create("com.example.Gate", "other", "", other)}) {
+            index.add(meta.flagID(), meta);
+        }
+        plan = ParsePlan.compile(index);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void shutdown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    /** Parses and narrows the gate to the parsed flags, then waits for release before applying */
+    private CompletableFuture<Boolean> submit(String... args) {
+        return ParseGate.submit(executor, gate -> {
+            ParseResult result = plan.parse(args);
+            gate.narrow(result);
+            awaitQuietly(release);
+            if (!gate.commit()) {
+                return false;
+            }
+            result.apply(true);
+            return true;
+        });
+    }
+
+    @Test
+    public void readersWaitUntilValuesAreApplied() throws Exception {
+        CompletableFuture<Boolean> parse = submit("--gated=2");
+        AtomicInteger seen = new AtomicInteger();
+        Thread reader = new Thread(() -> seen.set(flag.get()));
+        reader.start();
+        awaitWaiting(reader);
+        assertEquals(0, seen.get());
+
+        release.countDown();
+        reader.join(5000);
+        assertEquals(2, seen.get());
+        assertTrue(parse.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void readersOfOtherFlagsDoNotWait() throws Exception {
+        CountDownLatch narrowed = new CountDownLatch(1);
+        CompletableFuture<Void> parse = ParseGate.submit(executor, gate -> {
+            ParseResult result = plan.parse(new String[]{"--gated=2"});
+            gate.narrow(result);
+            narrowed.countDown();
+            awaitQuietly(release);
+            result.apply(true);
+            return null;
+        });
+        narrowed.await();
+        assertEquals(Integer.valueOf(10), other.get());
+        assertFalse(parse.isDone());
+
+        release.countDown();
+        parse.get(5, TimeUnit.SECONDS);
+        assertEquals(Integer.valueOf(2), flag.get());
+    }
+
+    @Test
+    public void backgroundThreadDoesNotWait() throws Exception {
+        CompletableFuture<Integer> parse = ParseGate.submit(executor, gate -> {
+            flag.parse("3");
+            return flag.get();
+        });
+        assertEquals(Integer.valueOf(3), parse.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancelledParseChangesNothing() throws Exception {
+        CompletableFuture<Boolean> parse = submit("--gated=2", "--other=20");
+        assertTrue(parse.cancel(false));
+        // readers do not wait for a cancelled parse
+        assertEquals(Integer.valueOf(1), flag.get());
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), flag.get());
+        assertEquals(Integer.valueOf(10), other.get());
+    }
+
+    @Test
+    public void cancelledParseDoesNotRun() throws Exception {
+        CompletableFuture<Boolean> running = submit("--other=20");
+        AtomicInteger runs = new AtomicInteger();
+        CompletableFuture<Void> queued = ParseGate.submit(executor, gate -> {
+            runs.incrementAndGet();
+            return null;
+        });
+        assertTrue(queued.cancel(false));
+
+        release.countDown();
+        assertTrue(running.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void computedFlagsWaitOnlyForInputs() throws Exception {
+        ComputedFlag<Integer> fromOther = Flags.computed(() -> other.get() * 2, other);
+        ComputedFlag<Integer> fromGated = Flags.computed(() -> flag.get() * 2, flag);
+        CountDownLatch narrowed = new CountDownLatch(1);
+        CompletableFuture<Void> parse = ParseGate.submit(executor, gate -> {
+            ParseResult result = plan.parse(new String[]{"--gated=2"});
+            gate.narrow(result);
+            narrowed.countDown();
+            awaitQuietly(release);
+            result.apply(true);
+            return null;
+        });
+        narrowed.await();
+        assertEquals(Integer.valueOf(20), fromOther.get());
+        AtomicInteger seen = new AtomicInteger();
+        Thread reader = new Thread(() -> seen.set(fromGated.get()));
+        reader.start();
+        awaitWaiting(reader);
+
+        release.countDown();
+        reader.join(5000);
+        parse.get(5, TimeUnit.SECONDS);
+        assertEquals(4, seen.get());
+    }
+
+    @Test
+    public void cannotCancelWhileApplying() throws Exception {
+        CountDownLatch applying = new CountDownLatch(1);
+        CompletableFuture<Void> parse = ParseGate.submit(executor, gate -> {
+            assertTrue(gate.commit());
+            applying.countDown();
+            awaitQuietly(release);
+            flag.parse("2");
+            return null;
+        });
+        applying.await();
+        assertFalse(parse.cancel(false));
+        release.countDown();
+        parse.get(5, TimeUnit.SECONDS);
+        assertEquals(Integer.valueOf(2), flag.get());
+    }
+
+    @Test
+    public void stuckParseFailsReaders() throws Exception {
+        long timeout = ParseGate.timeoutMillis;
+        ParseGate.timeoutMillis = 50;
+        try {
+            submit("--gated=2");
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                try {
+                    flag.get();
+                } catch (IllegalStateException e) {
+                    failure.set(e);
+                }
+            });
+            reader.start();
+            reader.join(5000);
+            assertNotNull(failure.get());
+            assertTrue(failure.get().getMessage(), failure.get().getMessage().contains("awaitQuietly"));
+        } finally {
+            ParseGate.timeoutMillis = timeout;
+        }
+    }
+
+    @Test
+    public void parseAsync() throws Exception {
+        CompletableFuture<List<String>> parse = Flags.parseAsync(new String[]{"--otherLevel=7", "input"}, PACKAGES);
+        assertEquals(7, OtherFlagDesc.getLevel());
+        assertEquals(Collections.singletonList("input"), parse.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failedParseAsyncChangesNothing() throws Exception {
+        Flags.parseAsync(new String[]{"--otherLevel=4"}, PACKAGES).get(5, TimeUnit.SECONDS);
+        CompletableFuture<List<String>> parse = Flags.parseAsync(
+                new String[]{"--otherLevel=5", "--otherLevel", "x"}, PACKAGES);
+        try {
+            parse.get(5, TimeUnit.SECONDS);
+            fail("Expected the parse to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof Flags.ParseException);
+        }
+        assertEquals(4, OtherFlagDesc.getLevel());
+    }
+
+    @Test
+    public void scanAsync() throws Exception {
+        Flags.scanAsync(PACKAGES).get(5, TimeUnit.SECONDS);
+        assertTrue(Flags.flagMetadata().byClass().containsKey(OtherFlagDesc.class.getCanonicalName()));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != Thread.State.TIMED_WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.TIMED_WAITING, thread.getState());
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.yin.flags;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class ParsePlanTest {
+    private static final String CLASS_NAME = "com.example.Plan";
+
+    private Flag<String> input;
+    private Flag<Integer> threads;
+    private Flag<Boolean> verbose;
+    private ParsePlan plan;
+
+    @Before
+    public void setup() {
+        input = Flags.create("default");
+        threads = Flags.create(1).validator((Integer value) -> {
+            if (value < 1) {
+                throw new Flags.ParseException("threads must be positive");
+            }
+        });
+        verbose = Flags.create(false);
+        FlagIndex<FlagMetadata> index = new FlagIndex<>();
+        add(index, CLASS_NAME, "input", input);
+        add(index, CLASS_NAME, "threads", threads);
+        add(index, CLASS_NAME, "verbose", verbose);
+        add(index, "com.example.Other", "input", Flags.create(""));
+        add(index, "com.example.Other", "output", Flags.create(""));
+        plan = ParsePlan.compile(index);
+    }
+
+    private static void add(FlagIndex<FlagMetadata> index, String className, String name, Flag<?> flag) {
+        FlagMetadata meta = FlagMetadata.create(className, name, "", flag);
+        index.add(meta.flagID(), meta);
+    }
+
+    @Test
+    public void parse_valuesAndArguments() throws Exception {
+        ParseResult result = plan.parse(new String[]{"--threads", "4", "arg", "--verbose", "--output=out"});
+
+        assertFalse(result.errors().toString(), result.hasErrors());
+        assertEquals(Integer.valueOf(4), result.get(threads));
+        assertEquals(Boolean.TRUE, result.get(verbose));
+        assertEquals("out", result.values().get(FlagID.create("com.example.Other", "output")));
+        assertEquals(Arrays.asList("arg"), result.arguments());
+    }
+
+    @Test
+    public void parse_doesNotChangeFlags() throws Exception {
+        ParseResult result = plan.parse(new String[]{"--threads=8", "--noverbose"});
+
+        assertEquals(Integer.valueOf(8), result.get(threads));
+        assertEquals(Boolean.FALSE, result.get(verbose));
+        assertEquals("flag should keep its value", Integer.valueOf(1), threads.get());
+
+        result.apply();
+        assertEquals(Integer.valueOf(8), threads.get());
+    }
+
+    @Test
+    public void parse_defaultsForMissingFlags() throws Exception {
+        ParseResult result = plan.parse(new String[0]);
+
+        assertEquals("default", result.get(input));
+        assertTrue(result.values().isEmpty());
+    }
+
+    @Test
+    public void parse_collectsAllErrors() throws Exception {
+        ParseResult result = plan.parse(new String[]{"--unknown", "--input", "x", "--threads", "zero", "--threads"});
+
+        assertEquals(result.errors().toString(), 4, result.errors().size());
+        try {
+            result.apply();
+            fail("Should have thrown ParseException");
+        } catch (Flags.ParseException ex) {
+            // success
+        }
+    }
+
+    @Test
+    public void parse_rejectsComputedFlags() throws Exception {
+        FlagIndex<FlagMetadata> index = new FlagIndex<>();
+        add(index, CLASS_NAME, "threads", threads);
+        add(index, CLASS_NAME, "workers", Flags.computed(() -> threads.get() * 2, threads));
+        ParseResult result = ParsePlan.compile(index).parse(new String[]{"--threads=2", "--workers=8"});
+
+        assertEquals(1, result.errors().size());
+        assertTrue(result.errors().get(0).contains("cannot be set"));
+    }
+
+    @Test
+    public void parse_doesNotRunValidators() throws Exception {
+        ParseResult result = plan.parse(new String[]{"--threads", "0"});
+
+        assertFalse(result.hasErrors());
+        try {
+            result.apply();
+            fail("Should have thrown ParseException");
+        } catch (Flags.ParseException ex) {
+            // success
+        }
+    }
+
+    @Test
+    public void parse_concurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                final int n = i + 1;
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        boolean ok = true;
+                        for (int j = 0; j < 1000; j++) {
+                            ParseResult result = plan.parse(new String[]{"--threads", String.valueOf(n)});
+                            ok &= result.get(threads) == n && !result.hasErrors();
+                        }
+                        return ok;
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(Integer.valueOf(1), threads.get());
+    }
+}
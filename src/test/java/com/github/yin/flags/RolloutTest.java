@@ -0,0 +1,86 @@
+package com.github.yin.flags;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RolloutTest {
+    @Test
+    public void percentage() {
+        Rollout rollout = Rollout.parse("10%");
+        int enabled = 0;
+        for (long key = 0; key < 100000; key++) {
+            if (rollout.isEnabledFor(key)) {
+                enabled++;
+            }
+        }
+        assertEquals(10000, enabled, 500);
+    }
+
+    @Test
+    public void growingPercentageKeepsEnabledKeys() {
+        Rollout small = Rollout.parse("5%;salt=checkout");
+        Rollout large = Rollout.parse("30%;salt=checkout");
+        for (long key = 0; key < 10000; key++) {
+            if (small.isEnabledFor(key)) {
+                assertTrue(large.isEnabledFor(key));
+            }
+        }
+    }
+
+    @Test
+    public void saltChangesChosenKeys() {
+        Rollout a = Rollout.parse("50%;salt=a");
+        Rollout b = Rollout.parse("50%;salt=b");
+        int same = 0;
+        for (long key = 0; key < 10000; key++) {
+            if (a.isEnabledFor(key) == b.isEnabledFor(key)) {
+                same++;
+            }
+        }
+        assertEquals(5000, same, 300);
+    }
+
+    @Test
+    public void allowAndDenyLists() {
+        Rollout rollout = Rollout.parse(" allow = 42, 17 ; deny=7;100% ".replace(" = ", "="));
+        assertTrue(rollout.isEnabledFor(42));
+        assertTrue(rollout.isEnabledFor(17));
+        assertFalse(rollout.isEnabledFor(7));
+        assertTrue(rollout.isEnabledFor(8));
+        assertEquals("100%;allow=17,42;deny=7", rollout.toString());
+        assertEquals(rollout, Rollout.parse(rollout.toString()));
+
+        Rollout allowOnly = Rollout.parse("allow=3");
+        assertTrue(allowOnly.isEnabledFor(3));
+        assertFalse(allowOnly.isEnabledFor(4));
+    }
+
+    @Test
+    public void onAndOff() {
+        assertTrue(Rollout.parse("on").isEnabledFor(Long.MIN_VALUE));
+        assertFalse(Rollout.parse("OFF").isEnabledFor(0));
+        assertEquals("0%", Rollout.OFF.toString());
+    }
+
+    @Test
+    public void invalidRules() {
+        for (String rules : new String[]{"101%", "-1%", "x%", "allow=a", "10%;10%", "sometimes"}) {
+            try {
+                Rollout.parse(rules);
+                fail("Expected ParseException for " + rules);
+            } catch (Flags.ParseException e) {
+                // success
+            }
+        }
+    }
+
+    @Test
+    public void flag() {
+        RolloutFlag flag = Flags.createRollout("off");
+        assertFalse(flag.isEnabledFor(1));
+        flag.parse("allow=1");
+        assertTrue(flag.isEnabledFor(1));
+        assertTrue(flag instanceof BasicFlag.ConvertibleFlag);
+    }
+}
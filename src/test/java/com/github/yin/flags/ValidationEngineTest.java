@@ -0,0 +1,191 @@
+package com.github.yin.flags;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ValidationEngineTest {
+    private static final String CLASS_NAME = "com.example.Validated";
+
+    private final Set<String> validatorThreads = ConcurrentHashMap.newKeySet();
+    private Flag<Integer> minThreads;
+    private Flag<Integer> maxThreads;
+    private Flag<String> path;
+    private FlagIndex<FlagMetadata> index;
+    private ValidationEngine engine;
+
+    @Before
+    public void setup() {
+        minThreads = Flags.create(1).validator(this::positive);
+        maxThreads = Flags.create(1).validator(this::positive);
+        path = Flags.create("/").validator((String value) -> {
+            validatorThreads.add(Thread.currentThread().getName());
+            if (!value.startsWith("/")) {
+                throw new Flags.ParseException("path must be absolute");
+            }
+        });
+        index = new FlagIndex<>();
+        add("minThreads", minThreads);
+        add("maxThreads", maxThreads);
+        add("path", path);
+        engine = ValidationEngine.create(2)
+                .crossValidator(values -> {
+                    if (values.get(minThreads) > values.get(maxThreads)) {
+                        throw new Flags.ParseException("minThreads exceeds maxThreads");
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    private void positive(Integer value) {
+        validatorThreads.add(Thread.currentThread().getName());
+        if (value < 1) {
+            throw new Flags.ParseException("must be positive");
+        }
+    }
+
+    private void add(String name, Flag<?> flag) {
+        FlagMetadata meta = FlagMetadata.create(CLASS_NAME, name, "", flag);
+        index.add(meta.flagID(), meta);
+    }
+
+    @Test
+    public void validate_valid() throws Exception {
+        ParseResult result = ParsePlan.compile(index).parse(new String[]{"--minThreads=2", "--maxThreads=4"});
+
+        assertTrue(engine.validate(result).isValid());
+        assertFalse("validators should not run on caller thread",
+                validatorThreads.contains(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void validate_reportsAllFailures() throws Exception {
+        ParseResult result = ParsePlan.compile(index)
+                .parse(new String[]{"--minThreads=0", "--maxThreads=-1", "--path=relative"});
+
+        ValidationResult validation = engine.validate(result);
+        assertEquals(validation.toString(), 4, validation.failures().size());
+        assertEquals(FlagID.create(CLASS_NAME, "minThreads"), validation.failures().get(0).flagID());
+        assertNull("cross validator failure has no flag", validation.failures().get(3).flagID());
+        try {
+            validation.throwIfInvalid();
+            fail("Should have thrown ParseException");
+        } catch (Flags.ParseException ex) {
+            assertTrue(ex.getMessage().contains("path must be absolute"));
+            assertTrue(ex.getMessage().contains("minThreads exceeds maxThreads"));
+        }
+    }
+
+    @Test
+    public void validate_crossValidatorSeesCurrentValues() throws Exception {
+        ParseResult result = ParsePlan.compile(index).parse(new String[]{"--minThreads=2"});
+
+        assertFalse(engine.validate(result).isValid());
+    }
+
+    @Test
+    public void validate_readsOnlyFlagsCrossValidatorsRead() throws Exception {
+        AtomicInteger reads = new AtomicInteger();
+        add("unused", Flags.computed(reads::incrementAndGet, minThreads));
+        ParseResult result = ParsePlan.compile(index).parse(new String[]{"--minThreads=2", "--maxThreads=4"});
+
+        assertTrue(engine.validate(result).isValid());
+        assertTrue(engine.validate(index).isValid());
+        assertEquals(0, reads.get());
+    }
+
+    @Test
+    public void validate_crossValidatorsSeeSameValues() throws Exception {
+        AtomicInteger reads = new AtomicInteger();
+        Flag<Integer> changing = new Flag<Integer>() {
+            @Override
+            public Flag validator(Validator<Integer> validator) {
+                return this;
+            }
+
+            @Override
+            public void parse(String value) {
+            }
+
+            @Override
+            public Integer get() {
+                return reads.incrementAndGet();
+            }
+        };
+        add("changing", changing);
+        Set<Integer> seen = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 4; i++) {
+            engine.crossValidator(values -> seen.add(values.get(changing)));
+        }
+        ParseResult result = ParsePlan.compile(index).parse(new String[]{"--maxThreads=4"});
+
+        assertTrue(engine.validate(result).isValid());
+        assertEquals(Collections.singleton(1), seen);
+    }
+
+    @Test
+    public void validate_rejectsFlagsWithoutConversion() throws Exception {
+        List<String> parsed = new ArrayList<>();
+        add("custom", new Flag<String>() {
+            @Override
+            public Flag validator(Validator<String> validator) {
+                return this;
+            }
+
+            @Override
+            public void parse(String value) {
+                parsed.add(value);
+            }
+
+            @Override
+            public String get() {
+                return "";
+            }
+        });
+        ParseResult result = ParsePlan.compile(index).parse(new String[]{"--minThreads=2", "--maxThreads=4", "--custom=x"});
+
+        ValidationResult validation = engine.validate(result);
+        assertEquals(validation.toString(), 1, validation.failures().size());
+        assertEquals(FlagID.create(CLASS_NAME, "custom"), validation.failures().get(0).flagID());
+        try {
+            result.apply(true);
+            fail("Should have thrown ParseException");
+        } catch (Flags.ParseException ex) {
+            assertEquals(Integer.valueOf(1), minThreads.get());
+            assertTrue(parsed.isEmpty());
+        }
+    }
+
+    @Test
+    public void apply_onlyValidValues() throws Exception {
+        ParsePlan plan = ParsePlan.compile(index);
+        assertFalse(engine.apply(plan.parse(new String[]{"--minThreads=3", "--maxThreads=0"})).isValid());
+        assertEquals(Integer.valueOf(1), minThreads.get());
+
+        assertTrue(engine.apply(plan.parse(new String[]{"--minThreads=3", "--maxThreads=4"})).isValid());
+        assertEquals(Integer.valueOf(3), minThreads.get());
+        assertEquals(Integer.valueOf(4), maxThreads.get());
+    }
+
+    @Test
+    public void validate_index() throws Exception {
+        assertTrue(engine.validate(index).isValid());
+
+        maxThreads.parse("5");
+        ((BasicFlag<Integer>) minThreads).inject(6);
+        assertEquals(1, engine.validate(index).failures().size());
+    }
+}
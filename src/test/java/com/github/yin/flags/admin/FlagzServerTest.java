@@ -0,0 +1,194 @@
+package com.github.yin.flags.admin;
+
+import com.github.yin.flags.Flag;
+import com.github.yin.flags.FlagChange;
+import com.github.yin.flags.FlagHistory;
+import com.github.yin.flags.FlagID;
+import com.github.yin.flags.FlagIndex;
+import com.github.yin.flags.FlagMetadata;
+import com.github.yin.flags.Flags;
+import com.github.yin.flags.ValidationEngine;
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FlagzServerTest {
+    private static final String CLASS_NAME = "com.example.Admin";
+
+    private Flag<Integer> threads;
+    private Flag<String> mode;
+    private final List<String> customValues = new ArrayList<>();
+    private final AtomicInteger validations = new AtomicInteger();
+    private FlagIndex<FlagMetadata> index;
+    private ValidationEngine validation;
+    private FlagzServer server;
+
+    @Before
+    public void setup() throws IOException {
+        threads = Flags.create(4).validator((Integer value) -> {
+            validations.incrementAndGet();
+            if (value < 1) {
+                throw new Flags.ParseException("threads must be positive");
+            }
+        });
+        mode = Flags.create("fast");
+        index = new FlagIndex<>();
+        for (FlagMetadata meta : new FlagMetadata[]{
+                FlagMetadata.create(CLASS_NAME, "adminThreads", "Worker \"threads\"", threads),
+                FlagMetadata.create(CLASS_NAME, "adminMode", "Mode", mode),
+                FlagMetadata.create(CLASS_NAME, "adminCustom", "Custom", new CustomFlag())}) {
+            index.add(meta.flagID(), meta);
+        }
+        validation = ValidationEngine.create(1);
+        server = FlagzServer.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), index, validation);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        validation.close();
+    }
+
+    private HttpURLConnection open(String query) throws IOException {
+        InetSocketAddress address = server.address();
+        URL url = new URL("http", address.getHostString(), address.getPort(), FlagzServer.PATH + query);
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    private String get(String query) throws IOException {
+        HttpURLConnection connection = open(query);
+        assertEquals(200, connection.getResponseCode());
+        try (InputStream in = connection.getInputStream()) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    private int post(String form) throws IOException {
+        HttpURLConnection connection = open("");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(form.getBytes(StandardCharsets.UTF_8));
+        }
+        return connection.getResponseCode();
+    }
+
+    /** Flag parsing values only by changing itself */
+    private class CustomFlag implements Flag<String> {
+        @Override
+        public Flag validator(Validator<String> validator) {
+            return this;
+        }
+
+        @Override
+        public void parse(String value) {
+            customValues.add(value);
+        }
+
+        @Override
+        public String get() {
+            return "custom";
+        }
+    }
+
+    @Test
+    public void dumpsFlags() throws Exception {
+        assertEquals("com.example.Admin.adminCustom=custom\ncom.example.Admin.adminMode=fast\n"
+                + "com.example.Admin.adminThreads=4\n", get(""));
+        assertEquals("", get("?prefix=org.example"));
+        assertEquals("{\"flags\":[{\"name\":\"adminCustom\",\"fqn\":\"com.example.Admin.adminCustom\","
+                        + "\"description\":\"Custom\",\"value\":\"custom\"},{\"name\":\"adminMode\",\"fqn\":\"com.example.Admin.adminMode\","
+                        + "\"description\":\"Mode\",\"value\":\"fast\"},{\"name\":\"adminThreads\","
+                        + "\"fqn\":\"com.example.Admin.adminThreads\",\"description\":\"Worker \\\"threads\\\"\","
+                        + "\"value\":\"4\"}]}\n",
+                get("?format=json&prefix=com.example"));
+    }
+
+    @Test
+    public void dumpsOnlyFlagsInPackage() throws Exception {
+        FlagMetadata other = FlagMetadata.create("com.examples.Admin", "adminOther", "", Flags.create(1));
+        index.add(other.flagID(), other);
+
+        assertFalse(get("?prefix=com.example").contains("adminOther"));
+        assertTrue(get("?prefix=com.examples").contains("com.examples.Admin.adminOther=1"));
+    }
+
+    @Test
+    public void dumpsUnavailableFlags() throws Exception {
+        FlagMetadata stuck = FlagMetadata.create(CLASS_NAME, "adminStuck", "", new CustomFlag() {
+            @Override
+            public String get() {
+                throw new IllegalStateException("Not applied in time\n\tat somewhere");
+            }
+        });
+        index.add(stuck.flagID(), stuck);
+
+        assertTrue(get("").contains("com.example.Admin.adminStuck unavailable: Not applied in time\n"));
+        assertTrue(get("?format=json").contains("\"value\":null,\"error\":\"Not applied in time\"}"));
+    }
+
+    @Test
+    public void updatesAtomically() throws Exception {
+        assertEquals(200, post("adminThreads=8&adminMode=slow%20start"));
+        assertEquals(Integer.valueOf(8), threads.get());
+        assertEquals("validators run once, before the update", 1, validations.get());
+        assertEquals("slow start", mode.get());
+        FlagChange change = FlagHistory.global().recent(1, FlagID.create(CLASS_NAME, "adminThreads")).get(0);
+        assertEquals(FlagChange.Source.ADMIN, change.source());
+
+        assertEquals(400, post("adminThreads=0&adminMode=fast"));
+        assertEquals(400, post("adminThreads=x&adminMode=fast"));
+        assertEquals(400, post("unknown=1&adminMode=fast"));
+        assertEquals(400, post("adminCustom=x&adminMode=fast"));
+        assertEquals(400, post("adminMode%3Dslow=fast"));
+        assertTrue(customValues.isEmpty());
+        assertEquals(Integer.valueOf(8), threads.get());
+        assertEquals("slow start", mode.get());
+    }
+
+    /**
+     * Sends a POST with a header {@link HttpURLConnection} refuses to set, returning the status line.
+     */
+    private String postWithHeader(String form, String header) throws IOException {
+        InetSocketAddress address = server.address();
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.getOutputStream().write(("POST " + FlagzServer.PATH + " HTTP/1.1\r\nHost: localhost\r\n"
+                    + header + "\r\nContent-Length: " + form.length() + "\r\nConnection: close\r\n\r\n" + form)
+                    .getBytes(StandardCharsets.US_ASCII));
+            String response = new String(ByteStreams.toByteArray(socket.getInputStream()), StandardCharsets.US_ASCII);
+            return response.substring(0, response.indexOf('\r'));
+        }
+    }
+
+    @Test
+    public void rejectsUpdatesFromBrowsers() throws Exception {
+        assertEquals("HTTP/1.1 403 Forbidden", postWithHeader("adminMode=slow", "Origin: http://evil.example"));
+        assertEquals("HTTP/1.1 403 Forbidden", postWithHeader("adminMode=slow", "Sec-Fetch-Site: cross-site"));
+        assertEquals("fast", mode.get());
+        assertEquals("HTTP/1.1 200 OK", postWithHeader("adminMode=slow", "User-Agent: curl"));
+        assertEquals("slow", mode.get());
+    }
+
+    @Test
+    public void rejectsOtherMethods() throws Exception {
+        HttpURLConnection connection = open("");
+        connection.setRequestMethod("DELETE");
+        assertEquals(405, connection.getResponseCode());
+    }
+}
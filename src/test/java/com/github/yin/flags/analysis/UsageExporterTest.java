@@ -0,0 +1,83 @@
+package com.github.yin.flags.analysis;
+
+import com.github.yin.flags.CompactFlagStore;
+import com.github.yin.flags.Flags;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class UsageExporterTest {
+    private CompactFlagStore store;
+
+    @Before
+    public void setup() {
+        store = CompactFlagStore.builder()
+                .add("com.example.server.Http", "port", "Listen port", Flags.create(8080))
+                .add("com.example.server.Http", "host", "Bind \"address\"", Flags.create("0.0.0.0"))
+                .add("com.example.serverless.Lambda", "memory", "Memory | MiB", Flags.create(128))
+                .add("com.example.client.Client", "retries", "-1 retries forever", Flags.create(3))
+                .classDescription("com.example.server.Http", "HTTP server")
+                .build();
+    }
+
+    private String export(UsageExporter.Format format, String prefix) throws IOException {
+        StringBuilder out = new StringBuilder();
+        new UsageExporter(format).export(store, prefix, out);
+        return out.toString();
+    }
+
+    @Test
+    public void text() throws Exception {
+        assertEquals("com.example.server.Http:\nHTTP server\n\n\thost\tBind \"address\"\n\tport\tListen port\n\n",
+                export(UsageExporter.Format.TEXT, "com.example.server"));
+    }
+
+    @Test
+    public void packagePrefix() throws Exception {
+        String all = export(UsageExporter.Format.TEXT, "");
+        assertTrue(all.indexOf("client.Client") < all.indexOf("server.Http"));
+        assertTrue(all.contains("serverless.Lambda"));
+        assertTrue(export(UsageExporter.Format.TEXT, "com.example.").contains("serverless.Lambda"));
+        assertEquals("", export(UsageExporter.Format.TEXT, "com.example.serv"));
+        assertEquals("", export(UsageExporter.Format.TEXT, "org"));
+        assertTrue(export(UsageExporter.Format.TEXT, "com.example.server.Http").contains("port"));
+    }
+
+    @Test
+    public void json() throws Exception {
+        assertEquals("{\"classes\":[{\"class\":\"com.example.server.Http\",\"description\":\"HTTP server\",\"flags\":["
+                        + "{\"name\":\"host\",\"fqn\":\"com.example.server.Http.host\","
+                        + "\"description\":\"Bind \\\"address\\\"\"},"
+                        + "{\"name\":\"port\",\"fqn\":\"com.example.server.Http.port\","
+                        + "\"description\":\"Listen port\"}]}]}\n",
+                export(UsageExporter.Format.JSON, "com.example.server"));
+        assertEquals("{\"classes\":[]}\n", export(UsageExporter.Format.JSON, "org"));
+    }
+
+    @Test
+    public void json_doesNotReadFlags() throws Exception {
+        CompactFlagStore computed = CompactFlagStore.builder()
+                .add("com.example.Pool", "size", "Pool size", Flags.computed(() -> {
+                    throw new IllegalStateException("computed flags are not evaluated");
+                }))
+                .build();
+        StringBuilder out = new StringBuilder();
+        new UsageExporter(UsageExporter.Format.JSON).export(computed, out);
+        assertTrue(out.toString().contains("\"description\":\"Pool size\""));
+    }
+
+    @Test
+    public void markdown() throws Exception {
+        assertEquals("## com.example.serverless.Lambda\n\n| Flag | Description |\n|------|-------------|\n"
+                + "| `--memory` | Memory \\| MiB |\n\n", export(UsageExporter.Format.MARKDOWN, "com.example.serverless"));
+    }
+
+    @Test
+    public void man() throws Exception {
+        assertEquals(".TH FLAGS 1\n.SH OPTIONS\n.SS com.example.client.Client\n.TP\n\\fB\\-\\-retries\\fR\n"
+                + "\\-1 retries forever\n", export(UsageExporter.Format.MAN, "com.example.client"));
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.yin.flags.config;
+
+import com.github.yin.flags.Flag;
+import com.github.yin.flags.FlagIndex;
+import com.github.yin.flags.FlagMetadata;
+import com.github.yin.flags.Flags;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class ConfigServiceClientTest {
+    private static final String CLASS_NAME = "com.example.Remote";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InProcessConfigServer server;
+    private Path cacheFile;
+    private Flag<Integer> threads;
+    private Flag<String> mode;
+    private FlagIndex<FlagMetadata> index;
+
+    @Before
+    public void setup() throws Exception {
+        server = new InProcessConfigServer(200);
+        cacheFile = folder.getRoot().toPath().resolve("flags.cache");
+        threads = Flags.create(1);
+        mode = Flags.create("fast");
+        index = new FlagIndex<>();
+        for (FlagMetadata meta : new FlagMetadata[]{
+                FlagMetadata.create(CLASS_NAME, "threads", "", threads),
+                FlagMetadata.create(CLASS_NAME, "mode", "", mode)}) {
+            index.add(meta.flagID(), meta);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition not met in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private Map<String, String> readCache() {
+        try (Reader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            return ConfigServiceClient.load(reader);
+        } catch (IOException e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    @Test
+    public void appliesDeltas() throws Exception {
+        server.set("threads", "8");
+        try (ConfigServiceClient client = new ConfigServiceClient(server.url(), index, cacheFile, 2000)) {
+            client.start();
+            await(() -> threads.get() == 8);
+
+            server.set("mode", "slow");
+            await(() -> "slow".equals(mode.get()));
+            // The cache is written after values are applied
+            await(() -> client.version() == server.version());
+            await(() -> "slow".equals(readCache().get("mode")));
+
+            Map<String, String> cached = readCache();
+            assertEquals("8", cached.get("threads"));
+            assertEquals("slow", cached.get("mode"));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidValues() throws Exception {
+        threads.validator((Integer value) -> {
+            if (value < 1) {
+                throw new Flags.ParseException("threads must be positive");
+            }
+        });
+        server.set("threads", "0");
+        server.set("unknown", "1");
+        server.set("mode", "slow");
+        try (ConfigServiceClient client = new ConfigServiceClient(server.url(), index, cacheFile, 2000)) {
+            client.start();
+            await(() -> "slow".equals(mode.get()));
+            await(() -> "slow".equals(readCache().get("mode")));
+
+            assertEquals("invalid value should not be applied", Integer.valueOf(1), threads.get());
+            Map<String, String> cached = readCache();
+            assertFalse("invalid value should not be cached", cached.containsKey("threads"));
+            assertFalse("unknown flag should not be cached", cached.containsKey("unknown"));
+        }
+    }
+
+    @Test
+    public void resolvesFlagsIndexedLater() throws Exception {
+        server.set("threads", "8");
+        try (ConfigServiceClient client = new ConfigServiceClient(server.url(), index, cacheFile, 2000)) {
+            client.start();
+            await(() -> threads.get() == 8);
+
+            Flag<Integer> workers = Flags.create(1);
+            FlagMetadata meta = FlagMetadata.create(CLASS_NAME, "workers", "", workers);
+            index.add(meta.flagID(), meta);
+            server.set("workers", "3");
+            await(() -> workers.get() == 3);
+        }
+    }
+
+    @Test
+    public void jitter_staysWithinBackoff() throws Exception {
+        for (long backoff : new long[]{1, ConfigServiceClient.MIN_BACKOFF_MILLIS, ConfigServiceClient.MAX_BACKOFF_MILLIS}) {
+            for (int i = 0; i < 1000; i++) {
+                long delay = ConfigServiceClient.jitter(backoff);
+                assertTrue("delay " + delay + " for back-off " + backoff, delay >= backoff / 2 && delay <= backoff);
+            }
+        }
+    }
+
+    @Test
+    public void coldStartFromCache() throws Exception {
+        Files.write(cacheFile, "threads=12\n".getBytes(StandardCharsets.UTF_8));
+        URL unreachable = server.url();
+        server.close();
+        try (ConfigServiceClient client = new ConfigServiceClient(unreachable, index, cacheFile, 2000)) {
+            client.start();
+            assertEquals(Integer.valueOf(12), threads.get());
+            assertEquals(0, client.version());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.github.yin.flags.nativeimage;
+
+import com.github.yin.flags.ComputedFlag;
+import com.github.yin.flags.Flag;
+import com.github.yin.flags.Flags;
+import com.github.yin.flags.analysis.UsageExporter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class FlagsFeatureTest {
+    private static final String TESTFLAGS_PACKAGE = "com.github.yin.flags.testclasses";
+    private static final List<String> LIBRARY_PACKAGES = Arrays.asList("com.github.yin.flags.", "com.google.common.");
+
+    @Test
+    public void indexClassesListsLibraryClassesReachableFromIndex() throws Exception {
+        List<String> packages = Collections.singletonList(TESTFLAGS_PACKAGE);
+        Flags.scan(packages);
+        Flags.parse(ImmutableMap.of("otherLevel", "3"), packages);
+        Flags.exportUsage(new StringWriter(), UsageExporter.Format.TEXT, "");
+        // flag types the scanned test classes do not declare
+        Flag<Integer> input = Flags.create(1);
+        Object[] flags = {input, Flags.create(Duration.ZERO), Flags.create(TimeUnit.class, TimeUnit.SECONDS),
+                Flags.createByteSize(0), Flags.createRollout("10%"), Flags.computed(() -> input.get() + 1, input)};
+        ((ComputedFlag<?>) flags[flags.length - 1]).get();
+
+        Set<String> listed = Sets.newHashSet(FlagsFeature.INDEX_CLASSES);
+        Set<String> missing = new TreeSet<>();
+        for (Class<?> clazz : reachableClasses(instance(), flags)) {
+            // lambdas are initialized with the class declaring them
+            String name = clazz.getName().replaceFirst("\\$\\$Lambda\\$.*", "");
+            if (isLibraryClass(name) && !listed.contains(name) && !inIndexPackage(name)) {
+                missing.add(name);
+            }
+        }
+        assertTrue("Classes missing in FlagsFeature.INDEX_CLASSES or INDEX_PACKAGES: " + missing, missing.isEmpty());
+    }
+
+    @Test
+    public void indexClassesExist() throws Exception {
+        for (String name : FlagsFeature.INDEX_CLASSES) {
+            Class.forName(name, false, getClass().getClassLoader());
+        }
+    }
+
+    @Test
+    public void indexPackagesExist() throws Exception {
+        for (String name : FlagsFeature.INDEX_PACKAGES) {
+            assertNotNull(name, Package.getPackage(name));
+        }
+    }
+
+    private static boolean inIndexPackage(String name) {
+        for (String pkg : FlagsFeature.INDEX_PACKAGES) {
+            if (name.startsWith(pkg + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object instance() throws ReflectiveOperationException {
+        Field field = Class.forName(Flags.class.getName() + "$Holder").getDeclaredField("INSTANCE");
+        field.setAccessible(true);
+        return field.get(null);
+    }
+
+    private static boolean isLibraryClass(String name) {
+        if (name.startsWith(TESTFLAGS_PACKAGE + ".") || name.equals(FlagsFeatureTest.class.getName())) {
+            return false;
+        }
+        for (String prefix : LIBRARY_PACKAGES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walks instance fields from root objects, as the image builder does when storing the
+     * objects in the image heap. Classes, class loaders, threads and weakly referenced objects
+     * are not followed. JDK classes are not reflected into, which fails on JDK 9 and later,
+     * only elements of their collections are followed.
+     */
+    private static Set<Class<?>> reachableClasses(Object... roots) throws IllegalAccessException {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Class<?>> classes = Sets.newHashSet();
+        Deque<Object> queue = new ArrayDeque<>(Arrays.asList(roots));
+        while (!queue.isEmpty()) {
+            Object object = queue.poll();
+            if (!seen.add(object) || object instanceof Class || object instanceof ClassLoader
+                    || object instanceof Thread) {
+                continue;
+            }
+            Class<?> clazz = object.getClass();
+            classes.add(clazz);
+            if (clazz.isArray()) {
+                if (!clazz.getComponentType().isPrimitive()) {
+                    for (int i = 0; i < Array.getLength(object); i++) {
+                        enqueue(queue, Array.get(object, i));
+                    }
+                }
+                continue;
+            }
+            if (isJdkClass(clazz.getName())) {
+                if (object instanceof WeakHashMap) {
+                    ((Map<?, ?>) object).values().forEach(value -> enqueue(queue, value));
+                } else if (object instanceof Map) {
+                    ((Map<?, ?>) object).forEach((key, value) -> {
+                        enqueue(queue, key);
+                        enqueue(queue, value);
+                    });
+                } else if (object instanceof Collection) {
+                    ((Collection<?>) object).forEach(element -> enqueue(queue, element));
+                } else if (object instanceof AtomicReference) {
+                    enqueue(queue, ((AtomicReference<?>) object).get());
+                }
+                continue;
+            }
+            for (Class<?> type = clazz; type != null && !isJdkClass(type.getName()); type = type.getSuperclass()) {
+                for (Field field : type.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    enqueue(queue, field.get(object));
+                }
+            }
+        }
+        return classes;
+    }
+
+    private static boolean isJdkClass(String name) {
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+                || name.startsWith("jdk.");
+    }
+
+    private static void enqueue(Deque<Object> queue, Object value) {
+        if (value != null) {
+            queue.add(value);
+        }
+    }
+}
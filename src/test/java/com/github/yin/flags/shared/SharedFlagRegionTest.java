@@ -0,0 +1,163 @@
+package com.github.yin.flags.shared;
+
+import com.github.yin.flags.Flag;
+import com.github.yin.flags.FlagID;
+import com.github.yin.flags.FlagIndex;
+import com.github.yin.flags.FlagMetadata;
+import com.github.yin.flags.Flags;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SharedFlagRegionTest {
+    private static final String CLASS_NAME = "com.example.Worker";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private Flag<Integer> threads;
+    private Flag<Double> ratio;
+    private Flag<String> mode;
+    private SharedFlagRegion writer;
+    private SharedFlagRegion reader;
+
+    @Before
+    public void setup() throws Exception {
+        file = folder.getRoot().toPath().resolve("worker.flags");
+        threads = Flags.create(4);
+        ratio = Flags.create(0.5);
+        mode = Flags.create("fast");
+        writer = SharedFlagRegion.open(file, index(threads, ratio, mode));
+        // a second mapping of the file stands in for another process
+        reader = SharedFlagRegion.open(file, index(Flags.create(0), Flags.create(0.0), Flags.create("")));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        writer.close();
+        reader.close();
+    }
+
+    private static FlagIndex<FlagMetadata> index(Flag<?> threads, Flag<?> ratio, Flag<?> mode) {
+        FlagIndex<FlagMetadata> index = new FlagIndex<>();
+        for (FlagMetadata meta : new FlagMetadata[]{
+                FlagMetadata.create(CLASS_NAME, "threads", "", threads),
+                FlagMetadata.create(CLASS_NAME, "ratio", "", ratio),
+                FlagMetadata.create(CLASS_NAME, "mode", "", mode)}) {
+            index.add(meta.flagID(), meta);
+        }
+        return index;
+    }
+
+    @Test
+    public void open_storesInitialValues() throws Exception {
+        assertEquals(4, reader.flag(FlagID.create(CLASS_NAME, "threads")).get());
+        assertEquals(0.5, reader.flag(FlagID.create(CLASS_NAME, "ratio")).getAsDouble(), 0.0);
+        assertEquals("fast", reader.flag(FlagID.create(CLASS_NAME, "mode")).get());
+    }
+
+    @Test
+    public void publish_visibleInOtherMapping() throws Exception {
+        writer.flag(threads).parse("16");
+        writer.publish(FlagID.create(CLASS_NAME, "mode"), "slow");
+
+        assertEquals(16L, reader.flag(FlagID.create(CLASS_NAME, "threads")).getAsLong());
+        assertEquals("slow", reader.flag(FlagID.create(CLASS_NAME, "mode")).get());
+        assertEquals("original flag is not changed", Integer.valueOf(4), threads.get());
+    }
+
+    @Test
+    public void publish_validates() throws Exception {
+        threads.validator((Integer value) -> {
+            if (value < 1) {
+                throw new Flags.ParseException("threads must be positive");
+            }
+        });
+        try {
+            writer.flag(threads).parse("0");
+            fail("Should have thrown ParseException");
+        } catch (Flags.ParseException ex) {
+            // success
+        }
+        assertEquals(Integer.valueOf(4), writer.flag(threads).get());
+    }
+
+    @Test(expected = IOException.class)
+    public void open_differentFlags() throws Exception {
+        FlagIndex<FlagMetadata> index = new FlagIndex<>();
+        FlagMetadata meta = FlagMetadata.create(CLASS_NAME, "other", "", Flags.create(1));
+        index.add(meta.flagID(), meta);
+        SharedFlagRegion.open(file, index);
+    }
+
+    @Test
+    public void readString_neverTorn() throws Exception {
+        final String a = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+        final String b = "bb";
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> torn = new AtomicReference<>();
+        Thread readerThread = new Thread(() -> {
+            Flag<?> shared = reader.flag(FlagID.create(CLASS_NAME, "mode"));
+            while (running.get()) {
+                Object value = shared.get();
+                if (!value.equals(a) && !value.equals(b) && !value.equals("fast")) {
+                    torn.set(String.valueOf(value));
+                }
+            }
+        });
+        readerThread.start();
+        SharedFlagRegion.SharedFlag<String> shared = writer.flag(mode);
+        for (int i = 0; i < 20000; i++) {
+            shared.parse(i % 2 == 0 ? a : b);
+        }
+        running.set(false);
+        readerThread.join();
+        assertNull("reader should never see a torn value", torn.get());
+    }
+
+    @Test
+    public void readString_failsOnCorruptedLength() throws Exception {
+        // "mode" is the first slot in FlagID order
+        writeInt(SharedFlagRegion.HEADER_SIZE + 4, Integer.MAX_VALUE);
+        try {
+            reader.flag(FlagID.create(CLASS_NAME, "mode")).get();
+            fail("Should have thrown IllegalStateException");
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("invalid length"));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void readString_failsWhileWriterIsStuck() throws Exception {
+        writeInt(SharedFlagRegion.HEADER_SIZE, 1);
+        reader.flag(FlagID.create(CLASS_NAME, "mode")).get();
+    }
+
+    @Test
+    public void publish_recoversFromDeadWriter() throws Exception {
+        writeInt(SharedFlagRegion.HEADER_SIZE, 7);
+        writer.flag(mode).parse("slow");
+
+        assertEquals("slow", reader.flag(FlagID.create(CLASS_NAME, "mode")).get());
+    }
+
+    private void writeInt(int position, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.allocate(4).putInt(0, value);
+            channel.write(bytes, position);
+        }
+    }
+}
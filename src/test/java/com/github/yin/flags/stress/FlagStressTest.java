@@ -0,0 +1,216 @@
+package com.github.yin.flags.stress;
+
+import com.github.yin.flags.Flag;
+import com.github.yin.flags.FlagID;
+import com.github.yin.flags.FlagIndex;
+import com.github.yin.flags.FlagMetadata;
+import com.github.yin.flags.Flags;
+import com.github.yin.flags.ValidationEngine;
+import com.github.yin.flags.shared.SharedFlagRegion;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.github.yin.flags.stress.StressHarness.Grade.*;
+import static org.junit.Assert.*;
+
+/**
+ * Checks atomicity and visibility of flag updates made while other threads read flags.
+ * A one-line summary of each scenario is printed, its full report is logged at debug level and
+ * attached to the failure of a scenario with forbidden outcomes.
+ */
+public class FlagStressTest {
+    private static final Logger log = LoggerFactory.getLogger(FlagStressTest.class);
+    private static final int ITERATIONS = 20000;
+    private static final List<String> PACKAGES = Collections.singletonList(StressFlags.class.getPackage().getName());
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void check(StressHarness.Scenario<?> scenario, int iterations) throws InterruptedException {
+        StressHarness.Report report = scenario.run(iterations);
+        System.out.println(report.summary());
+        log.debug("{}", report);
+        assertTrue("Forbidden outcomes in " + report.name + ": " + report.forbidden() + "\n" + report,
+                report.forbidden().isEmpty());
+    }
+
+    static class Rejected {
+        Rejected() {
+            Flags.parse(new String[]{"--stressLeft=0", "--stressRight=0"}, PACKAGES);
+        }
+
+        int observed;
+    }
+
+    @Test
+    public void rejectedParseChangesNothing() throws Exception {
+        Flags.scan(PACKAGES);
+        ValidationEngine validation = new ValidationEngine(MoreExecutors.sameThreadExecutor());
+        check(new StressHarness.Scenario<>("Rejected Flags.parse atomicity", Rejected::new)
+                .actor(s -> {
+                    try {
+                        // stressRight rejects negative values
+                        Flags.parse(new String[]{"--stressLeft=7", "--stressRight=-1"}, PACKAGES, validation);
+                        fail("Expected negative stressRight to be rejected");
+                    } catch (Flags.ParseException ex) {
+                        // success
+                    }
+                })
+                .actor(s -> s.observed = StressFlags.stressLeft.get())
+                .batch(1)
+                .arbiter(s -> s.observed + ", " + StressFlags.stressLeft.get())
+                .outcome("0, 0", ACCEPTABLE, "no value of the rejected parse applied")
+                .outcome("7, 0", FORBIDDEN, "value of the rejected parse seen while validating")
+                .outcome("0, 7", FORBIDDEN, "value of the rejected parse kept")
+                .outcome("7, 7", FORBIDDEN, "value of the rejected parse kept"), 2000);
+    }
+
+    static class SharedString {
+        static final String LONG = Strings.repeat("a", 200);
+        static final String SHORT = "bb";
+        static final int WRITES = 16;
+        final Set<String> observed = new TreeSet<>();
+        volatile boolean written;
+
+        static String kind(Object value) {
+            return LONG.equals(value) ? "long" : SHORT.equals(value) ? "short" : "torn";
+        }
+    }
+
+    @Test
+    public void sharedStringsAreNotTorn() throws Exception {
+        Flag<String> mode = Flags.create(SharedString.SHORT);
+        FlagIndex<FlagMetadata> index = new FlagIndex<>();
+        FlagMetadata meta = FlagMetadata.create("com.example.Stress", "mode", "", mode);
+        index.add(meta.flagID(), meta);
+        Path file = folder.getRoot().toPath().resolve("stress.flags");
+        try (SharedFlagRegion writer = SharedFlagRegion.open(file, index);
+             // a second mapping of the file stands in for another process
+             SharedFlagRegion reader = SharedFlagRegion.open(file, index)) {
+            Flag<String> written = writer.flag(mode);
+            Flag<?> read = reader.flag(meta.flagID());
+            check(new StressHarness.Scenario<>("SharedFlagRegion string atomicity", SharedString::new)
+                    .actor(s -> {
+                        for (int i = 0; i < SharedString.WRITES; i++) {
+                            written.parse(SharedString.LONG);
+                            written.parse(SharedString.SHORT);
+                        }
+                        s.written = true;
+                    })
+                    .actor(s -> {
+                        // reads for as long as the writer writes, at least once
+                        do {
+                            s.observed.add(SharedString.kind(read.get()));
+                        } while (!s.written);
+                    })
+                    .arbiter(s -> String.join(", ", s.observed))
+                    .outcome("long", ACCEPTABLE, "read whole long values")
+                    .outcome("short", ACCEPTABLE, "read whole short values")
+                    .outcome("long, short", ACCEPTABLE, "read whole values of both lengths")
+                    .outcome("torn", FORBIDDEN, "read parts of two values"), ITERATIONS);
+        }
+    }
+
+    static class Spin {
+        final Flag<Integer> flag = Flags.create(0);
+        boolean seen;
+    }
+
+    @Test
+    public void updatesBecomeVisible() throws Exception {
+        check(new StressHarness.Scenario<>("BasicFlag update visibility", Spin::new)
+                .actor(s -> s.flag.parse("1"))
+                .actor(s -> {
+                    long deadline = System.nanoTime() + 100000000L;
+                    while (s.flag.get() == 0 && System.nanoTime() < deadline) {
+                        // Without a volatile value the JIT may hoist the read out of the loop
+                    }
+                    s.seen = s.flag.get() == 1;
+                })
+                .arbiter(s -> s.seen ? "seen" : "stale")
+                .outcome("seen", ACCEPTABLE, "reader observed the update")
+                .outcome("stale", FORBIDDEN, "update not visible within 100 ms"), ITERATIONS);
+    }
+
+    static class Pair {
+        final Flag<Integer> first = Flags.create(0);
+        final Flag<Integer> second = Flags.create(0);
+        int observedFirst;
+        int observedSecond;
+    }
+
+    @Test
+    public void updatesAreOrdered() throws Exception {
+        check(new StressHarness.Scenario<>("BasicFlag message passing", Pair::new)
+                .actor(s -> {
+                    s.first.parse("1");
+                    s.second.parse("1");
+                })
+                .actor(s -> {
+                    s.observedSecond = s.second.get();
+                    s.observedFirst = s.first.get();
+                })
+                .arbiter(s -> s.observedSecond + ", " + s.observedFirst)
+                .outcome("0, 0", ACCEPTABLE, "read before both updates")
+                .outcome("0, 1", ACCEPTABLE, "read between the updates")
+                .outcome("1, 1", ACCEPTABLE, "read after both updates")
+                .outcome("1, 0", FORBIDDEN, "second update seen before the first"), ITERATIONS);
+    }
+
+    static class Registration {
+        static final FlagID FIRST = FlagID.create("com.example.Stress", "first");
+        static final FlagID SECOND = FlagID.create("com.example.Stress", "second");
+        final FlagIndex<String> index = new FlagIndex<>();
+        boolean observedFirst;
+        boolean observedSecond;
+    }
+
+    @Test
+    public void lookupsDuringRegistration() throws Exception {
+        check(new StressHarness.Scenario<>("FlagIndex lookup during registration", Registration::new)
+                .actor(s -> {
+                    s.index.add(Registration.FIRST, "first");
+                    s.index.add(Registration.SECOND, "second");
+                })
+                .actor(s -> {
+                    s.observedSecond = s.index.byFQN().containsKey(Registration.SECOND.fqn());
+                    s.observedFirst = s.index.byName().containsKey(Registration.FIRST.flagName());
+                })
+                .arbiter(s -> s.observedSecond + ", " + s.observedFirst)
+                .outcome("false, false", ACCEPTABLE, "looked up before registration")
+                .outcome("false, true", ACCEPTABLE, "looked up between the registrations")
+                .outcome("true, true", ACCEPTABLE, "looked up after registration")
+                .outcome("true, false", FORBIDDEN, "second flag found before the first"), ITERATIONS);
+    }
+
+    static class Parse {
+        Parse() {
+            Flags.parse(new String[]{"--stressLeft=0", "--stressRight=0"}, PACKAGES);
+        }
+    }
+
+    @Test
+    public void concurrentParse() throws Exception {
+        Flags.scan(PACKAGES);
+        check(new StressHarness.Scenario<>("Concurrent Flags.parse", Parse::new)
+                .actor(s -> Flags.parse(new String[]{"--stressLeft=1", "--stressRight=1"}, PACKAGES))
+                .actor(s -> Flags.parse(new String[]{"--stressLeft=2", "--stressRight=2"}, PACKAGES))
+                .batch(1)
+                .arbiter(s -> StressFlags.stressLeft.get() + ", " + StressFlags.stressRight.get())
+                .outcome("1, 1", ACCEPTABLE, "parse of 1s applied last")
+                .outcome("2, 2", ACCEPTABLE, "parse of 2s applied last")
+                .outcome("1, 2", INTERESTING, "parses interleaved, flags are not parsed atomically")
+                .outcome("2, 1", INTERESTING, "parses interleaved, flags are not parsed atomically"), 2000);
+    }
+}
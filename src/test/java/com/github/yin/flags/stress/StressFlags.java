@@ -0,0 +1,18 @@
+package com.github.yin.flags.stress;
+
+import com.github.yin.flags.Flag;
+import com.github.yin.flags.Flags;
+import com.github.yin.flags.annotations.FlagDesc;
+
+@FlagDesc("Flags changed concurrently by stress scenarios")
+public class StressFlags {
+    @FlagDesc("Left value of a pair parsed together")
+    static final Flag<Integer> stressLeft = Flags.create(0);
+
+    @FlagDesc("Right value of a pair parsed together, not negative")
+    static final Flag<Integer> stressRight = Flags.create(0).validator((Integer value) -> {
+        if (value < 0) {
+            throw new Flags.ParseException("stressRight must not be negative: " + value);
+        }
+    });
+}
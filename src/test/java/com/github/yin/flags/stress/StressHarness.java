@@ -0,0 +1,194 @@
+package com.github.yin.flags.stress;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs concurrency scenarios in the manner of jcstress. Each scenario has a state, actors
+ * running concurrently against it, each on its own thread, and an arbiter turning the final
+ * state into an outcome. Every outcome is graded {@link Grade#ACCEPTABLE}, {@link
+ * Grade#INTERESTING} or {@link Grade#FORBIDDEN}, outcomes not graded by the scenario are
+ * forbidden.
+ *
+ * Actors run through a batch of fresh states, one after another, so they race on each of them
+ * without waiting on a barrier for every state.
+ */
+final class StressHarness {
+    private static final int DEFAULT_BATCH = 256;
+
+    enum Grade {ACCEPTABLE, INTERESTING, FORBIDDEN}
+
+    interface Actor<S> {
+        void act(S state) throws Exception;
+    }
+
+    static final class Scenario<S> {
+        private final String name;
+        private final Supplier<S> state;
+        private final List<Actor<S>> actors = new ArrayList<>();
+        private Function<S, String> arbiter;
+        private int batchSize = DEFAULT_BATCH;
+        private final Map<String, Grade> grades = new TreeMap<>();
+        private final Map<String, String> descriptions = new TreeMap<>();
+
+        Scenario(String name, Supplier<S> state) {
+            this.name = name;
+            this.state = state;
+        }
+
+        Scenario<S> actor(Actor<S> actor) {
+            actors.add(actor);
+            return this;
+        }
+
+        Scenario<S> arbiter(Function<S, String> arbiter) {
+            this.arbiter = arbiter;
+            return this;
+        }
+
+        /**
+         * Sets number of states actors run through between barriers. Scenarios on global state
+         * need batches of 1, so the arbiter sees the outcome of each race.
+         */
+        Scenario<S> batch(int size) {
+            this.batchSize = size;
+            return this;
+        }
+
+        Scenario<S> outcome(String outcome, Grade grade, String description) {
+            grades.put(outcome, grade);
+            descriptions.put(outcome, description);
+            return this;
+        }
+
+        /**
+         * Runs the scenario on at least {@code iterations} states.
+         */
+        Report run(int iterations) throws InterruptedException {
+            int batches = (iterations + batchSize - 1) / batchSize;
+            CyclicBarrier start = new CyclicBarrier(actors.size() + 1);
+            CyclicBarrier end = new CyclicBarrier(actors.size() + 1);
+            List<S> batch = new ArrayList<>(batchSize);
+            ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < actors.size(); i++) {
+                Actor<S> actor = actors.get(i);
+                Thread thread = new Thread(() -> {
+                    try {
+                        for (int b = 0; b < batches; b++) {
+                            start.await();
+                            for (S state : batch) {
+                                try {
+                                    actor.act(state);
+                                } catch (Exception | AssertionError e) {
+                                    failures.add(e.getClass().getSimpleName() + ": " + e.getMessage());
+                                }
+                            }
+                            end.await();
+                        }
+                    } catch (InterruptedException | BrokenBarrierException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, name + "-actor-" + i);
+                thread.setDaemon(true);
+                threads.add(thread);
+                thread.start();
+            }
+
+            Map<String, Long> histogram = new TreeMap<>();
+            try {
+                for (int b = 0; b < batches; b++) {
+                    batch.clear();
+                    for (int i = 0; i < batchSize; i++) {
+                        batch.add(state.get());
+                    }
+                    start.await(1, TimeUnit.MINUTES);
+                    end.await(1, TimeUnit.MINUTES);
+                    for (S state : batch) {
+                        histogram.merge(arbiter.apply(state), 1L, Long::sum);
+                    }
+                }
+            } catch (BrokenBarrierException | TimeoutException e) {
+                throw new IllegalStateException("Scenario " + name + " did not finish", e);
+            } finally {
+                for (Thread thread : threads) {
+                    thread.interrupt();
+                }
+            }
+            for (String failure : failures) {
+                histogram.merge("exception " + failure, 1L, Long::sum);
+            }
+            return new Report(name, histogram, grades, descriptions);
+        }
+    }
+
+    /**
+     * Counts of outcomes observed in a scenario, with their grades.
+     */
+    static final class Report {
+        final String name;
+        final ImmutableMap<String, Long> histogram;
+        private final Map<String, Grade> grades;
+        private final Map<String, String> descriptions;
+
+        private Report(String name, Map<String, Long> histogram, Map<String, Grade> grades,
+                       Map<String, String> descriptions) {
+            this.name = name;
+            this.histogram = ImmutableMap.copyOf(histogram);
+            this.grades = grades;
+            this.descriptions = descriptions;
+        }
+
+        Grade grade(String outcome) {
+            Grade grade = grades.get(outcome);
+            return grade != null ? grade : Grade.FORBIDDEN;
+        }
+
+        /** Returns forbidden outcomes which were observed */
+        List<String> forbidden() {
+            ImmutableList.Builder<String> forbidden = ImmutableList.builder();
+            for (String outcome : histogram.keySet()) {
+                if (grade(outcome) == Grade.FORBIDDEN) {
+                    forbidden.add(outcome);
+                }
+            }
+            return forbidden.build();
+        }
+
+        /** Returns name of the scenario and counts of its outcomes on one line */
+        String summary() {
+            StringBuilder summary = new StringBuilder(name).append(':');
+            for (Map.Entry<String, Long> entry : histogram.entrySet()) {
+                summary.append(' ').append(entry.getKey()).append('=').append(entry.getValue())
+                        .append(" (").append(grade(entry.getKey())).append(')');
+            }
+            return summary.toString();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(name).append('\n');
+            for (Map.Entry<String, Long> entry : histogram.entrySet()) {
+                String description = descriptions.get(entry.getKey());
+                report.append(String.format("  %-24s %10d  %-12s %s%n", entry.getKey(), entry.getValue(),
+                        grade(entry.getKey()), description != null ? description : "unexpected outcome"));
+            }
+            return report.toString();
+        }
+    }
+
+    private StressHarness() {
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.yin.flags.testclasses;
+
+import com.github.yin.flags.Flag;
+import com.github.yin.flags.Flags;
+import com.github.yin.flags.annotations.FlagDesc;
+
+@FlagDesc("Another class declaring flags, scanned only when needed")
+public class OtherFlagDesc {
+    @FlagDesc(name = "otherLevel", value = "A renamed flag")
+    static final Flag<Integer> level = Flags.create(0);
+
+    public static int getLevel() {
+        return level.get();
+    }
+}